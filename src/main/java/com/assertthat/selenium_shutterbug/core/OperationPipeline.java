@@ -0,0 +1,355 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.core;
+
+import com.assertthat.selenium_shutterbug.utils.image.BoxBlur;
+import com.assertthat.selenium_shutterbug.utils.image.ImageProcessor;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.RasterFormatException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Image operations of a snapshot recorded to be executed together when the image is needed.
+ * <p>
+ * Operations are recorded in the coordinates of the image as it would be at that point,
+ * i.e. after the crops recorded before, and kept in the coordinates of the uncropped image.
+ * Before executing, operations are planned from the last to the first:
+ * <ul>
+ * <li>crops are applied last as a view of the uncropped image, so no pixels outside of them are copied
+ * and earlier operations are limited to the pixels visible in the end or read by later operations;</li>
+ * <li>operations whose pixels are all painted over by a later cut out, or repeated by a later identical
+ * opaque highlight, are dropped;</li>
+ * <li>consecutive drawing operations share one graphics context.</li>
+ * </ul>
+ * Every remaining operation touches only the pixels within its own area. Overlapping operations are not
+ * merged into one: blurring or converting pixels twice gives other values than doing it once.
+ */
+final class OperationPipeline {
+
+    private static final BoxBlur BLUR = new BoxBlur(BoxBlur.DEFAULT_RADIUS);
+
+    private final List<Operation> operations = new ArrayList<>();
+    private Rectangle frame;
+
+    OperationPipeline(int width, int height) {
+        this.frame = new Rectangle(0, 0, width, height);
+    }
+
+    boolean isEmpty() {
+        return operations.isEmpty();
+    }
+
+    /**
+     * @return width of the image once the recorded operations are executed
+     */
+    int getWidth() {
+        return frame.width;
+    }
+
+    /**
+     * @return height of the image once the recorded operations are executed
+     */
+    int getHeight() {
+        return frame.height;
+    }
+
+    void highlight(Rectangle area, Color color, int lineWidth) {
+        add(Kind.HIGHLIGHT, area).draw(color, lineWidth == 0 ? 3 : lineWidth, null, null);
+    }
+
+    void text(int x, int y, String text, Color color, Font font) {
+        add(Kind.TEXT, new Rectangle(x, y, 0, 0)).draw(color, 0, text, font);
+    }
+
+    void cutOut(Rectangle area) {
+        add(Kind.CUT_OUT, area);
+    }
+
+    void blur() {
+        add(Kind.BLUR, new Rectangle(0, 0, frame.width, frame.height));
+    }
+
+    void blur(Rectangle area) {
+        add(Kind.BLUR, checkInside(area));
+    }
+
+    /**
+     * @param areas areas to blur one after the other, all or none recorded
+     */
+    void blur(List<Rectangle> areas) {
+        areas.forEach(this::checkInside);
+        areas.forEach(this::blur);
+    }
+
+    void blurExcept(Rectangle area) {
+        add(Kind.BLUR_EXCEPT, checkInside(area));
+    }
+
+    void monochrome(Rectangle area) {
+        add(Kind.MONOCHROME, checkInside(area));
+    }
+
+    /**
+     * @param areas areas to convert one after the other, all or none recorded
+     */
+    void monochrome(List<Rectangle> areas) {
+        areas.forEach(this::checkInside);
+        areas.forEach(this::monochrome);
+    }
+
+    void crop(Rectangle area) {
+        add(Kind.CROP, checkInside(area));
+        frame = translate(area);
+    }
+
+    private Operation add(Kind kind, Rectangle area) {
+        Operation operation = new Operation(kind, translate(area), new Rectangle(frame));
+        operations.add(operation);
+        return operation;
+    }
+
+    /**
+     * Fail when recording, as the operation would when executed right away.
+     */
+    private Rectangle checkInside(Rectangle area) {
+        if (area.x < 0 || area.y < 0 || area.width <= 0 || area.height <= 0
+                || area.x + area.width > frame.width || area.y + area.height > frame.height) {
+            throw new RasterFormatException("Area " + area.x + "," + area.y + " " + area.width + "x" + area.height
+                    + " is outside of the image " + frame.width + "x" + frame.height);
+        }
+        return area;
+    }
+
+    private Rectangle translate(Rectangle area) {
+        return new Rectangle(area.x + frame.x, area.y + frame.y, area.width, area.height);
+    }
+
+    /**
+     * Execute the recorded operations on the image they were recorded for and forget them.
+     *
+     * @param image uncropped image, modified in place
+     * @return the image, or a view of its cropped part
+     */
+    BufferedImage execute(BufferedImage image) {
+        List<Operation> planned = plan();
+        Graphics2D g = null;
+        Rectangle drawingFrame = null;
+        for (Operation operation : planned) {
+            if (operation.kind.isDrawing()) {
+                // strokes are rasterized relative to the image drawn on, so draw on the image the operation was recorded for
+                if (g == null || !drawingFrame.equals(operation.frame)) {
+                    if (g != null) {
+                        g.dispose();
+                    }
+                    drawingFrame = operation.frame;
+                    g = image.getSubimage(drawingFrame.x, drawingFrame.y, drawingFrame.width, drawingFrame.height).createGraphics();
+                }
+                operation.draw(g);
+            } else {
+                if (g != null) {
+                    g.dispose();
+                    g = null;
+                }
+                operation.apply(image);
+            }
+        }
+        if (g != null) {
+            g.dispose();
+        }
+        operations.clear();
+        BufferedImage result = frame.x == 0 && frame.y == 0 && frame.width == image.getWidth() && frame.height == image.getHeight()
+                ? image : image.getSubimage(frame.x, frame.y, frame.width, frame.height);
+        frame = new Rectangle(0, 0, frame.width, frame.height);
+        return result;
+    }
+
+    /**
+     * @return operations still needed, each limited to the pixels that matter, in recording order
+     */
+    private List<Operation> plan() {
+        List<Rectangle> needed = new ArrayList<>();
+        needed.add(frame);
+        List<Rectangle> paintedOver = new ArrayList<>();
+        List<Operation> highlighted = new ArrayList<>();
+        List<Operation> planned = new ArrayList<>();
+        for (int i = operations.size() - 1; i >= 0; i--) {
+            Operation operation = operations.get(i);
+            if (operation.kind == Kind.CROP) {
+                continue;
+            }
+            Rectangle written = operation.written();
+            Rectangle clip = null;
+            for (Rectangle rectangle : needed) {
+                if (rectangle.intersects(written)) {
+                    clip = clip == null ? rectangle.intersection(written) : clip.union(rectangle.intersection(written));
+                }
+            }
+            if (clip == null || contains(paintedOver, written) || repeats(highlighted, operation)) {
+                continue;
+            }
+            operation.clip = clip;
+            planned.add(0, operation);
+            Rectangle read = operation.read(clip);
+            if (read != null) {
+                needed.add(read);
+                // pixels read here must hold their values as of this point
+                paintedOver.removeIf(read::intersects);
+                highlighted.removeIf(h -> read.intersects(h.written()));
+            }
+            if (operation.kind == Kind.CUT_OUT) {
+                paintedOver.add(written);
+            } else if (operation.kind == Kind.HIGHLIGHT && operation.color.getAlpha() == 255) {
+                highlighted.add(operation);
+            }
+        }
+        return planned;
+    }
+
+    private static boolean contains(List<Rectangle> rectangles, Rectangle area) {
+        for (Rectangle rectangle : rectangles) {
+            if (rectangle.contains(area)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean repeats(List<Operation> highlighted, Operation operation) {
+        if (operation.kind != Kind.HIGHLIGHT) {
+            return false;
+        }
+        for (Operation later : highlighted) {
+            if (later.area.equals(operation.area) && later.color.equals(operation.color) && later.lineWidth == operation.lineWidth) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private enum Kind {
+        HIGHLIGHT, TEXT, CUT_OUT, BLUR, BLUR_EXCEPT, MONOCHROME, CROP;
+
+        boolean isDrawing() {
+            return this == HIGHLIGHT || this == TEXT || this == CUT_OUT;
+        }
+    }
+
+    private static final class Operation {
+        private final Kind kind;
+        private final Rectangle area;
+        private final Rectangle frame;
+        private Color color;
+        private int lineWidth;
+        private String text;
+        private Font font;
+        private Rectangle clip;
+
+        Operation(Kind kind, Rectangle area, Rectangle frame) {
+            this.kind = kind;
+            this.area = area;
+            this.frame = frame;
+        }
+
+        void draw(Color color, int lineWidth, String text, Font font) {
+            this.color = color;
+            this.lineWidth = lineWidth;
+            this.text = text;
+            this.font = font;
+        }
+
+        /**
+         * @return bounds of the pixels the operation may change
+         */
+        Rectangle written() {
+            switch (kind) {
+                case HIGHLIGHT:
+                    Rectangle stroke = new Rectangle(area);
+                    stroke.grow(lineWidth, lineWidth);
+                    return stroke.intersection(frame);
+                case TEXT:
+                    return frame;
+                case BLUR_EXCEPT:
+                    return inner(frame);
+                case BLUR:
+                    return inner(area.intersection(frame));
+                default:
+                    return area.intersection(frame);
+            }
+        }
+
+        /**
+         * @param clip written pixels that matter
+         * @return bounds of the pixels the operation reads to produce them, null if it only paints
+         */
+        Rectangle read(Rectangle clip) {
+            switch (kind) {
+                case BLUR:
+                case BLUR_EXCEPT:
+                    return reach(clip);
+                case MONOCHROME:
+                    return clip;
+                case HIGHLIGHT:
+                case TEXT:
+                    return color.getAlpha() == 255 ? null : clip;
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * @return area to blur so that the clipped pixels get the same values as when blurring the whole area
+         */
+        private Rectangle reach(Rectangle clip) {
+            Rectangle reach = new Rectangle(clip);
+            reach.grow(BLUR.getRadius(), BLUR.getRadius());
+            return reach.intersection(kind == Kind.BLUR ? area.intersection(frame) : frame);
+        }
+
+        private static Rectangle inner(Rectangle area) {
+            Rectangle inner = new Rectangle(area);
+            inner.grow(-BLUR.getRadius(), -BLUR.getRadius());
+            return inner.isEmpty() ? new Rectangle(area.x, area.y, 0, 0) : inner;
+        }
+
+        /**
+         * @param g graphics of the frame the operation was recorded in
+         */
+        void draw(Graphics2D g) {
+            g.setClip(clip.x - frame.x, clip.y - frame.y, clip.width, clip.height);
+            int x = area.x - frame.x;
+            int y = area.y - frame.y;
+            switch (kind) {
+                case HIGHLIGHT:
+                    ImageProcessor.highlight(g, new Rectangle(x, y, area.width, area.height), color, lineWidth);
+                    break;
+                case TEXT:
+                    g.setPaint(color);
+                    g.setFont(font);
+                    g.drawString(text, x, y);
+                    break;
+                default:
+                    g.setColor(Color.white);
+                    g.fillRect(x, y, area.width, area.height);
+            }
+        }
+
+        void apply(BufferedImage image) {
+            switch (kind) {
+                case BLUR:
+                    BLUR.apply(image, reach(clip), null);
+                    break;
+                case BLUR_EXCEPT:
+                    BLUR.apply(image, reach(clip), area);
+                    break;
+                default:
+                    ImageProcessor.convertToGrayAndWhite(image.getSubimage(clip.x, clip.y, clip.width, clip.height));
+            }
+        }
+    }
+}
@@ -5,25 +5,78 @@
 
 package com.assertthat.selenium_shutterbug.core;
 
+import com.assertthat.selenium_shutterbug.utils.image.BoxBlur;
 import com.assertthat.selenium_shutterbug.utils.image.ImageProcessor;
+import com.assertthat.selenium_shutterbug.utils.web.Browser;
 import com.assertthat.selenium_shutterbug.utils.web.Coordinates;
 import com.assertthat.selenium_shutterbug.utils.web.ElementOutsideViewportException;
 import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
 
 import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.awt.image.RasterFormatException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Created by Glib_Briia on 17/06/2016.
  */
 public class PageSnapshot extends Snapshot {
 
+    private boolean deferred;
+    private OperationPipeline pipeline;
+
     PageSnapshot(WebDriver driver, Double devicePixelRatio) {
         this.driver = driver;
         this.devicePixelRatio = devicePixelRatio;
     }
 
+    /**
+     * Record highlight, blur, monochrome, cut out and crop operations called after this one
+     * instead of applying them right away. They are applied together when the image is needed
+     * (e.g. saved, compared or returned by {@link #getImage()}), skipping the pixels hidden
+     * by later operations or cropped away. Element coordinates are still read when the operation is called.
+     *
+     * @return instance of type PageSnapshot
+     */
+    public PageSnapshot withDeferredOperations() {
+        this.deferred = true;
+        return this;
+    }
+
+    @Override
+    protected void setImage(BufferedImage image) {
+        pipeline = null;
+        super.setImage(image);
+    }
+
+    @Override
+    void applyPendingOperations() {
+        if (pipeline != null && !pipeline.isEmpty()) {
+            image = pipeline.execute(image);
+            imageChanged();
+        }
+    }
+
+    @Override
+    public void close() {
+        pipeline = null;
+        super.close();
+    }
+
+    private OperationPipeline pipeline() {
+        if (pipeline == null) {
+            pipeline = new OperationPipeline(image.getWidth(), image.getHeight());
+        }
+        return pipeline;
+    }
+
+    private static Rectangle area(Coordinates coords) {
+        return new Rectangle(coords.getX(), coords.getY(), coords.getWidth(), coords.getHeight());
+    }
+
     /**
      * Highlights WebElement within the page with Color.red
      * and line width 3.
@@ -51,7 +104,13 @@ public class PageSnapshot extends Snapshot {
      */
     public PageSnapshot highlight(WebElement element, Color color, int lineWidth) {
         try {
-            image = ImageProcessor.highlight(image, new Coordinates(element, devicePixelRatio), color, lineWidth);
+            Coordinates coords = new Coordinates(element, devicePixelRatio);
+            if (deferred) {
+                pipeline().highlight(area(coords), color, lineWidth);
+            } else {
+                image = ImageProcessor.highlight(image, coords, color, lineWidth);
+                imageChanged();
+            }
         } catch (RasterFormatException rfe) {
             throw new ElementOutsideViewportException(ELEMENT_OUT_OF_VIEWPORT_EX_MESSAGE, rfe);
         }
@@ -93,7 +152,12 @@ public class PageSnapshot extends Snapshot {
         try {
             highlight(element, elementColor, 0);
             Coordinates coords = new Coordinates(element, devicePixelRatio);
-            image = ImageProcessor.addText(image, coords.getX(), coords.getY() - textFont.getSize() / 2, text, textColor, textFont);
+            if (deferred) {
+                pipeline().text(coords.getX(), coords.getY() - textFont.getSize() / 2, text, textColor, textFont);
+            } else {
+                image = ImageProcessor.addText(image, coords.getX(), coords.getY() - textFont.getSize() / 2, text, textColor, textFont);
+                imageChanged();
+            }
         } catch (RasterFormatException rfe) {
             throw new ElementOutsideViewportException(ELEMENT_OUT_OF_VIEWPORT_EX_MESSAGE, rfe);
         }
@@ -102,11 +166,19 @@ public class PageSnapshot extends Snapshot {
 
     /**
      * Blur the entire page.
+     * <p>
+     * The image is blurred in place, like the other operations, rather than replaced by a blurred copy,
+     * so an image obtained earlier from {@link #getImage()} is blurred as well. Copy it first to keep it unchanged.
      *
      * @return instance of type PageSnapshot
      */
     public PageSnapshot blur() {
-        image = ImageProcessor.blur(image);
+        if (deferred) {
+            pipeline().blur();
+        } else {
+            image = ImageProcessor.blurInPlace(image, BoxBlur.DEFAULT_RADIUS);
+            imageChanged();
+        }
         return this;
     }
 
@@ -118,7 +190,13 @@ public class PageSnapshot extends Snapshot {
      */
     public PageSnapshot blur(WebElement element) {
         try {
-            image = ImageProcessor.blurArea(image, new Coordinates(element, devicePixelRatio));
+            Coordinates coords = new Coordinates(element, devicePixelRatio);
+            if (deferred) {
+                pipeline().blur(area(coords));
+            } else {
+                image = ImageProcessor.blurArea(image, coords);
+                imageChanged();
+            }
         } catch (RasterFormatException rfe) {
             throw new ElementOutsideViewportException(ELEMENT_OUT_OF_VIEWPORT_EX_MESSAGE, rfe);
         }
@@ -134,7 +212,13 @@ public class PageSnapshot extends Snapshot {
      */
     public PageSnapshot monochrome(WebElement element) {
         try {
-            image = ImageProcessor.monochromeArea(image, new Coordinates(element, devicePixelRatio));
+            Coordinates coords = new Coordinates(element, devicePixelRatio);
+            if (deferred) {
+                pipeline().monochrome(area(coords));
+            } else {
+                image = ImageProcessor.monochromeArea(image, coords);
+                imageChanged();
+            }
         } catch (RasterFormatException rfe) {
             throw new ElementOutsideViewportException(ELEMENT_OUT_OF_VIEWPORT_EX_MESSAGE, rfe);
         }
@@ -149,7 +233,13 @@ public class PageSnapshot extends Snapshot {
      */
     public PageSnapshot blurExcept(WebElement element) {
         try {
-            image = ImageProcessor.blurExceptArea(image, new Coordinates(element, devicePixelRatio));
+            Coordinates coords = new Coordinates(element, devicePixelRatio);
+            if (deferred) {
+                pipeline().blurExcept(area(coords));
+            } else {
+                image = ImageProcessor.blurExceptArea(image, coords);
+                imageChanged();
+            }
         } catch (RasterFormatException rfe) {
             throw new ElementOutsideViewportException(ELEMENT_OUT_OF_VIEWPORT_EX_MESSAGE, rfe);
         }
@@ -166,7 +256,12 @@ public class PageSnapshot extends Snapshot {
      */
     public PageSnapshot cropAround(WebElement element, int offsetX, int offsetY) {
         try {
-            image = ImageProcessor.cropAround(image, new Coordinates(element, devicePixelRatio), offsetX, offsetY);
+            Coordinates coords = new Coordinates(element, devicePixelRatio);
+            if (deferred) {
+                pipeline().crop(new Rectangle(coords.getX() - offsetX, coords.getY() - offsetY, coords.getWidth() + offsetX * 2, coords.getHeight() + offsetY * 2));
+            } else {
+                image = ImageProcessor.cropAround(image, coords, offsetX, offsetY);
+            }
         } catch (RasterFormatException rfe) {
             throw new ElementOutsideViewportException(ELEMENT_OUT_OF_VIEWPORT_EX_MESSAGE, rfe);
         }
@@ -182,9 +277,48 @@ public class PageSnapshot extends Snapshot {
      * @return instance of type PageSnapshot
      */
     public PageSnapshot cutOut(int offsetX, int offsetY, WebElement... elements) {
+        return cutOut(offsetX, offsetY, Arrays.asList(elements));
+    }
+
+    /**
+     * Cut out specified element(s).
+     *
+     * @param elements WebElement to crop
+     * @return instance of type PageSnapshot
+     */
+    public PageSnapshot cutOut(WebElement... elements) {
+        return cutOut(0, 0, elements);
+    }
+
+    /**
+     * Cut out specified elements, reading the location of all of them with a single script call.
+     *
+     * @param elements WebElements to cut out
+     * @return instance of type PageSnapshot
+     */
+    public PageSnapshot cutOut(List<WebElement> elements) {
+        return cutOut(0, 0, elements);
+    }
+
+    /**
+     * Cut out specified elements with offset, reading the location of all of them with a single script call.
+     *
+     * @param offsetX  offsetX around every element in px
+     * @param offsetY  offsetY around every element in px
+     * @param elements WebElements to cut out
+     * @return instance of type PageSnapshot
+     */
+    public PageSnapshot cutOut(int offsetX, int offsetY, List<WebElement> elements) {
         try {
-            for (WebElement element : elements) {
-                ImageProcessor.cutOut(image, new Coordinates(element, devicePixelRatio), offsetX, offsetY);
+            List<Coordinates> coords = coordinates(elements);
+            if (deferred) {
+                for (Coordinates element : coords) {
+                    pipeline().cutOut(new Rectangle(element.getX() - offsetX, element.getY() - offsetY,
+                            element.getScrollWidth() + offsetX * 2, element.getScrollHeight() + offsetY * 2));
+                }
+            } else if (!coords.isEmpty()) {
+                ImageProcessor.cutOut(image, coords, offsetX, offsetY);
+                imageChanged();
             }
         } catch (RasterFormatException rfe) {
             throw new ElementOutsideViewportException(ELEMENT_OUT_OF_VIEWPORT_EX_MESSAGE, rfe);
@@ -193,15 +327,79 @@ public class PageSnapshot extends Snapshot {
     }
 
     /**
-     * Cut out specified element(s).
+     * Highlight specified elements with Color.red and line width 3,
+     * reading the location of all of them with a single script call.
      *
-     * @param elements WebElement to crop
+     * @param elements WebElements to be highlighted
      * @return instance of type PageSnapshot
      */
-    public PageSnapshot cutOut(WebElement... elements) {
+    public PageSnapshot highlight(List<WebElement> elements) {
+        return highlight(elements, Color.red, 3);
+    }
+
+    /**
+     * Highlight specified elements with provided color and line width,
+     * reading the location of all of them with a single script call.
+     *
+     * @param elements  WebElements to be highlighted
+     * @param color     color of the line
+     * @param lineWidth width of the line
+     * @return instance of type PageSnapshot
+     */
+    public PageSnapshot highlight(List<WebElement> elements, Color color, int lineWidth) {
+        try {
+            List<Coordinates> coords = coordinates(elements);
+            if (deferred) {
+                for (Coordinates element : coords) {
+                    pipeline().highlight(area(element), color, lineWidth);
+                }
+            } else if (!coords.isEmpty()) {
+                image = ImageProcessor.highlight(image, coords, color, lineWidth);
+                imageChanged();
+            }
+        } catch (RasterFormatException rfe) {
+            throw new ElementOutsideViewportException(ELEMENT_OUT_OF_VIEWPORT_EX_MESSAGE, rfe);
+        }
+        return this;
+    }
+
+    /**
+     * Blur specified elements within the page, reading the location of all of them with a single script call.
+     * Same as {@link #blur(WebElement)} for each of them, in order.
+     *
+     * @param elements WebElements to be blurred
+     * @return instance of type PageSnapshot
+     */
+    public PageSnapshot blur(List<WebElement> elements) {
+        try {
+            List<Coordinates> coords = coordinates(elements);
+            if (deferred) {
+                pipeline().blur(areas(coords));
+            } else if (!coords.isEmpty()) {
+                image = ImageProcessor.blurAreas(image, coords);
+                imageChanged();
+            }
+        } catch (RasterFormatException rfe) {
+            throw new ElementOutsideViewportException(ELEMENT_OUT_OF_VIEWPORT_EX_MESSAGE, rfe);
+        }
+        return this;
+    }
+
+    /**
+     * Make specified elements 'monochrome', reading the location of all of them with a single script call.
+     * Every pixel is converted once, also where elements overlap.
+     *
+     * @param elements WebElements within the page to be made 'monochrome'
+     * @return instance of type PageSnapshot
+     */
+    public PageSnapshot monochrome(List<WebElement> elements) {
         try {
-            for (WebElement element : elements) {
-                ImageProcessor.cutOut(image, new Coordinates(element, devicePixelRatio), 0, 0);
+            List<Coordinates> coords = coordinates(elements);
+            if (deferred) {
+                pipeline().monochrome(ImageProcessor.disjointUnion(areas(coords)));
+            } else if (!coords.isEmpty()) {
+                image = ImageProcessor.monochromeAreas(image, coords);
+                imageChanged();
             }
         } catch (RasterFormatException rfe) {
             throw new ElementOutsideViewportException(ELEMENT_OUT_OF_VIEWPORT_EX_MESSAGE, rfe);
@@ -209,6 +407,18 @@ public class PageSnapshot extends Snapshot {
         return this;
     }
 
+    private List<Coordinates> coordinates(List<WebElement> elements) {
+        return Browser.getCoordinates(driver, elements, devicePixelRatio);
+    }
+
+    private static List<Rectangle> areas(List<Coordinates> coords) {
+        List<Rectangle> areas = new ArrayList<>(coords.size());
+        for (Coordinates element : coords) {
+            areas.add(area(element));
+        }
+        return areas;
+    }
+
     @Override
     protected PageSnapshot self() {
         return this;
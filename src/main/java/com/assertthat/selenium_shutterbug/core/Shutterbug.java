@@ -5,6 +5,9 @@
 
 package com.assertthat.selenium_shutterbug.core;
 
+import com.assertthat.selenium_shutterbug.utils.image.BaselineCache;
+import com.assertthat.selenium_shutterbug.utils.image.ImageProcessor;
+import com.assertthat.selenium_shutterbug.utils.image.model.TileHashIndex;
 import com.assertthat.selenium_shutterbug.utils.web.Browser;
 import com.assertthat.selenium_shutterbug.utils.web.Coordinates;
 import org.openqa.selenium.By;
@@ -12,7 +15,6 @@ import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.support.ui.ExpectedCondition;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
@@ -26,11 +28,42 @@ public class Shutterbug {
     private static final int DEFAULT_SCROLL_TIMEOUT = 100;
     private static Function<WebDriver, ?> beforeShootCondition;
     private static int beforeShootTimeout;
+    private static int scrollOverlap;
+    private static boolean inPageHelper;
 
     private Shutterbug() {
 
     }
 
+    /**
+     * Overlap tiles of scrolled captures taken after this call.
+     *
+     * @param overlap pixels shared by neighbouring tiles, 0 by default
+     */
+    public static void setScrollOverlap(int overlap) {
+        if (overlap < 0) {
+            throw new IllegalArgumentException("Overlap must not be negative: " + overlap);
+        }
+        scrollOverlap = overlap;
+    }
+
+    /**
+     * Use the in-page script helper for shots taken after this call.
+     *
+     * @param enabled true to install the scripts in the page once, false to send every script in full (default)
+     * @see Browser#setInPageHelper(boolean)
+     */
+    public static void setInPageHelper(boolean enabled) {
+        inPageHelper = enabled;
+    }
+
+    private static Browser browser(WebDriver driver, boolean useDevicePixelRatio) {
+        Browser browser = new Browser(driver, useDevicePixelRatio);
+        browser.setScrollOverlap(scrollOverlap);
+        browser.setInPageHelper(inPageHelper);
+        return browser;
+    }
+
     /**
      * Make screenshot of the viewport only.
      * To be used when screenshotting the page
@@ -54,7 +87,7 @@ public class Shutterbug {
      * @return PageSnapshot instance
      */
     public static PageSnapshot shootPage(WebDriver driver, boolean useDevicePixelRatio) {
-        Browser browser = new Browser(driver, useDevicePixelRatio);
+        Browser browser = browser(driver, useDevicePixelRatio);
         PageSnapshot pageScreenshot = new PageSnapshot(driver, browser.getDevicePixelRatio());
         pageScreenshot.setImage(browser.takeScreenshot());
         return pageScreenshot;
@@ -140,7 +173,7 @@ public class Shutterbug {
      */
     public static PageSnapshot shootPage(WebDriver driver, Capture capture,
                                          int betweenScrollTimeout, boolean useDevicePixelRatio) {
-        Browser browser = new Browser(driver, useDevicePixelRatio);
+        Browser browser = browser(driver, useDevicePixelRatio);
         browser.setBetweenScrollTimeout(betweenScrollTimeout);
         if (beforeShootCondition != null) {
             browser.setBeforeShootTimeout(beforeShootTimeout);
@@ -228,7 +261,7 @@ public class Shutterbug {
      * @return ElementSnapshot instance
      */
     public static ElementSnapshot shootElement(WebDriver driver, WebElement element, boolean useDevicePixelRatio) {
-        Browser browser = new Browser(driver, useDevicePixelRatio);
+        Browser browser = browser(driver, useDevicePixelRatio);
         ElementSnapshot elementSnapshot = new ElementSnapshot(driver, browser.getDevicePixelRatio());
         browser.scrollToElement(element);
         elementSnapshot.setImage(browser.takeScreenshot(), browser.getCoordinates(element));
@@ -249,7 +282,7 @@ public class Shutterbug {
                                                WebElement element,
                                                CaptureElement capture,
                                                boolean useDevicePixelRatio) {
-        Browser browser = new Browser(driver, useDevicePixelRatio);
+        Browser browser = browser(driver, useDevicePixelRatio);
         ElementSnapshot elementSnapshot = new ElementSnapshot(driver, browser.getDevicePixelRatio());
         browser.scrollToElement(element);
         switch (capture) {
@@ -282,7 +315,7 @@ public class Shutterbug {
                                                By by,
                                                CaptureElement capture,
                                                boolean useDevicePixelRatio) {
-        Browser browser = new Browser(driver, useDevicePixelRatio);
+        Browser browser = browser(driver, useDevicePixelRatio);
         ElementSnapshot elementSnapshot = new ElementSnapshot(driver, browser.getDevicePixelRatio());
         browser.scrollToElement(by);
         switch (capture) {
@@ -310,7 +343,7 @@ public class Shutterbug {
      * @return ElementSnapshot instance
      */
     public static ElementSnapshot shootElementVerticallyCentered(WebDriver driver, WebElement element, boolean useDevicePixelRatio) {
-        Browser browser = new Browser(driver, useDevicePixelRatio);
+        Browser browser = browser(driver, useDevicePixelRatio);
         ElementSnapshot elementSnapshot = new ElementSnapshot(driver, browser.getDevicePixelRatio());
         browser.scrollToElementVerticalCentered(element);
         elementSnapshot.setImage(browser.takeScreenshot(), browser.getCoordinates(element));
@@ -382,12 +415,12 @@ public class Shutterbug {
     public static PageSnapshot shootFrame(WebDriver driver, WebElement frame,
                                           CaptureElement capture,
                                           int betweenScrollTimeout, boolean useDevicePixelRatio) {
-        Browser browser = new Browser(driver, useDevicePixelRatio);
+        Browser browser = browser(driver, useDevicePixelRatio);
         browser.setBetweenScrollTimeout(betweenScrollTimeout);
         browser.scrollToElement(frame);
         Coordinates coordinates = browser.getCoordinates(frame);
 
-        Browser browserParent = new Browser(driver, useDevicePixelRatio);
+        Browser browserParent = browser(driver, useDevicePixelRatio);
         if (capture != CaptureElement.VIEWPORT &&
                 (coordinates.getWidth() > browserParent.getViewportWidth() || coordinates.getHeight() > browserParent.getViewportHeight())) {
             throw new UnsupportedOperationException("Full frame screenshot is" +
@@ -459,6 +492,10 @@ public class Shutterbug {
     //////////////////////////////////start full-page diff section/////////////////////////////////////////////////////////
     /**
      * assert a full-page screenshot
+     * <p>
+     * Only the tiles whose hashes differ from the baseline's are compared pixel by pixel, see {@link TileHashIndex};
+     * the tile hashes of baselines are stored in the directory set with {@link TileHashIndex#setSidecarDirectory(File)},
+     * and baselines are compared pixel by pixel throughout if it is set to null.
      *
      * @param   driver                      WebDriver instance
      * @param   expectedImageFolderPath     Optional: String - path to the folder containing the expected image. For example: "expected".
@@ -477,13 +514,24 @@ public class Shutterbug {
     public static Boolean compareScreenshotFP(WebDriver driver, String expectedImageFolderPath, String expectedImageName, String diffImageFolderPath, String diffImageName, Double deviation) {
         String expectedImagePath = expectedImageFolderPath + File.separator + expectedImageName;
         String diffImagePath = diffImageFolderPath + File.separator + diffImageName;
+        File expectedImageFile = new File(expectedImagePath);
         BufferedImage expectedImage = null;
         try {
-            expectedImage = ImageIO.read(new File(expectedImagePath));
+            expectedImage = BaselineCache.getInstance().getImage(expectedImageFile);
         } catch (IOException e) {
             e.printStackTrace();
         }
-        return Shutterbug.shootPage(driver,  Capture.FULL).equalsWithDiff(expectedImage, diffImagePath, deviation);
+        PageSnapshot pageSnapshot = Shutterbug.shootPage(driver,  Capture.FULL);
+        if (expectedImage == null) {
+            return pageSnapshot.equalsWithDiff(expectedImage, diffImagePath, deviation);
+        }
+        if (TileHashIndex.getSidecarDirectory() == null) {
+            // without a stored index, hashing both images would cost more than comparing them directly
+            return ImageProcessor.imagesAreEqualsWithDiff(pageSnapshot.getImage(), expectedImage, diffImagePath, deviation);
+        }
+        // only changed tiles are compared pixel by pixel, tile hashes of the baseline are kept in a sidecar file
+        TileHashIndex expectedTiles = BaselineCache.getInstance().getTileIndex(expectedImageFile, expectedImage, TileHashIndex.DEFAULT_TILE_SIZE);
+        return ImageProcessor.imagesAreEqualsWithDiff(pageSnapshot.getImage(), expectedImage, expectedTiles, diffImagePath, deviation);
     }
     public static Boolean compareScreenshotFP(WebDriver driver, String expectedImageFolderPath, String expectedImageName, String diffImageFolderPath, String diffImageName) {
         Double deviation = 0.0;
@@ -6,7 +6,12 @@
 package com.assertthat.selenium_shutterbug.core;
 
 import com.assertthat.selenium_shutterbug.utils.file.FileUtil;
+import com.assertthat.selenium_shutterbug.utils.image.BaselineCache;
+import com.assertthat.selenium_shutterbug.utils.image.ImagePool;
 import com.assertthat.selenium_shutterbug.utils.image.ImageProcessor;
+import com.assertthat.selenium_shutterbug.utils.image.model.ComparisonResult;
+import com.assertthat.selenium_shutterbug.utils.image.model.LumaPlane;
+import com.assertthat.selenium_shutterbug.utils.image.model.PerceptualHash;
 import org.openqa.selenium.WebDriver;
 
 import javax.imageio.ImageIO;
@@ -24,7 +29,7 @@ import java.util.Date;
 /**
  * Created by Glib_Briia on 17/06/2016.
  */
-public abstract class Snapshot<T extends Snapshot> {
+public abstract class Snapshot<T extends Snapshot> implements AutoCloseable {
 
     static final String ELEMENT_OUT_OF_VIEWPORT_EX_MESSAGE = "Requested element is outside the viewport";
     private static final String EXTENSION = "PNG";
@@ -36,6 +41,9 @@ public abstract class Snapshot<T extends Snapshot> {
             + "." + EXTENSION.toLowerCase();
     private Path location = Paths.get("./screenshots/");
     private String title;
+    private boolean perceptualPrescreen;
+    private LumaPlane lumaPlane;
+    private BufferedImage lumaSource;
 
     protected abstract T self();
 
@@ -62,6 +70,20 @@ public abstract class Snapshot<T extends Snapshot> {
     }
 
 
+    /**
+     * Pre-screen strict comparisons (deviation 0) by the perceptual hashes of the images:
+     * images whose hashes differ are reported different without comparing them pixel by pixel,
+     * as the hash is computed from pixels of the images. Images with equal hashes, and comparisons
+     * with a deviation, are always compared pixel by pixel, since a hash distance tells
+     * nothing certain about the pixel deviation. Disabled by default.
+     *
+     * @return instance of type Snapshot
+     */
+    public T withPerceptualPrescreen() {
+        this.perceptualPrescreen = true;
+        return self();
+    }
+
     /**
      * Generate a thumbnail of the original screenshot.
      * Will save different thumbnails depends on when it was called in the chain.
@@ -76,6 +98,7 @@ public abstract class Snapshot<T extends Snapshot> {
         if (!Files.exists(Paths.get(path))) {
             thumbnailFile.mkdirs();
         }
+        applyPendingOperations();
         thumbnailImage = ImageProcessor.scale(image, scale);
         FileUtil.writeImage(thumbnailImage, EXTENSION, thumbnailFile);
         return self();
@@ -94,6 +117,7 @@ public abstract class Snapshot<T extends Snapshot> {
      */
     public T withCroppedThumbnail(String path, String name, double scale, double cropWidth, double cropHeight) {
         File thumbnailFile = getFile(path, name);
+        applyPendingOperations();
         thumbnailImage = ImageProcessor.cropAndScale(image, scale, cropWidth, cropHeight);
         FileUtil.writeImage(thumbnailImage, EXTENSION, thumbnailFile);
         return self();
@@ -112,6 +136,7 @@ public abstract class Snapshot<T extends Snapshot> {
      */
     public T withCroppedThumbnail(String path, String name, double scale, int maxWidth, int maxHeight) {
         File thumbnailFile = getFile(path, name);
+        applyPendingOperations();
         thumbnailImage = ImageProcessor.cropAndScale(image, scale, maxWidth, maxHeight);
         FileUtil.writeImage(thumbnailImage, EXTENSION, thumbnailFile);
         return self();
@@ -188,14 +213,21 @@ public abstract class Snapshot<T extends Snapshot> {
      * @return instance of type Snapshot
      */
     public T monochrome() {
+        applyPendingOperations();
         this.image = ImageProcessor.convertToGrayAndWhite(this.image);
+        imageChanged();
         return self();
     }
 
     /**
+     * The image may share its pixels with the pooled buffers of the {@link ImagePool}:
+     * after {@link #close()} they are reused by following shots, so the image must no longer be used.
+     * Copy it first if it is needed beyond the snapshot.
+     *
      * @return BufferedImage - current image being processed.
      */
     public BufferedImage getImage() {
+        applyPendingOperations();
         return image;
     }
 
@@ -203,6 +235,7 @@ public abstract class Snapshot<T extends Snapshot> {
      * @return byte[] - byte array representation of the image.
      */
     public byte[] getBytes() throws IOException {
+        applyPendingOperations();
         ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
         ImageIO.write(image, "png", outputStream);
         return outputStream.toByteArray();
@@ -210,6 +243,54 @@ public abstract class Snapshot<T extends Snapshot> {
 
     protected void setImage(BufferedImage image) {
         self().image = image;
+        imageChanged();
+    }
+
+    /**
+     * 8-bit luminance of the image, computed once and kept until the snapshot modifies its image.
+     *
+     * @return luminance of the current image, null if there is no image
+     */
+    public LumaPlane getLumaPlane() {
+        applyPendingOperations();
+        if (image == null) {
+            return null;
+        }
+        if (lumaPlane == null || lumaSource != image) {
+            lumaPlane = LumaPlane.of(image);
+            lumaSource = image;
+        }
+        return lumaPlane;
+    }
+
+    /**
+     * To be called whenever the image is modified in place.
+     */
+    void imageChanged() {
+        lumaPlane = null;
+        lumaSource = null;
+    }
+
+    /**
+     * To be called before the image is read, applies the operations recorded but not applied yet if any.
+     */
+    void applyPendingOperations() {
+    }
+
+    /**
+     * Give the images of the snapshot back to the {@link ImagePool} once they are no longer needed,
+     * so that following shots reuse their pixel buffers. Neither the snapshot nor images obtained
+     * from it, e.g. by {@link #getImage()}, may be used afterwards, as they would silently show
+     * the pixels of other shots.
+     */
+    @Override
+    public void close() {
+        ImagePool pool = ImagePool.getInstance();
+        pool.release(image);
+        pool.release(thumbnailImage);
+        image = null;
+        thumbnailImage = null;
+        imageChanged();
     }
 
     /**
@@ -221,6 +302,7 @@ public abstract class Snapshot<T extends Snapshot> {
         if (!Files.exists(location)) {
             screenshotFile.mkdirs();
         }
+        applyPendingOperations();
         if (title != null && !title.isEmpty()) {
             image = ImageProcessor.addTitle(image, title, Color.red, new Font("Serif", Font.BOLD, 20));
         }
@@ -246,6 +328,8 @@ public abstract class Snapshot<T extends Snapshot> {
      */
     public boolean equals(Snapshot other, double deviation) {
         if (this == other) return true;
+        Boolean prescreened = prescreen(other.getImage(), deviation);
+        if (prescreened != null) return prescreened;
         return getImage() != null ? ImageProcessor.imagesAreEquals(getImage(), other.getImage(), deviation) : other.getImage() == null;
     }
 
@@ -289,6 +373,8 @@ public abstract class Snapshot<T extends Snapshot> {
      */
     public boolean equals(BufferedImage image, double deviation) {
         if (this.getImage() == image) return true;
+        Boolean prescreened = prescreen(image, deviation);
+        if (prescreened != null) return prescreened;
         return getImage() != null ? ImageProcessor.imagesAreEquals(getImage(), image, deviation) : image == null;
     }
 
@@ -300,8 +386,10 @@ public abstract class Snapshot<T extends Snapshot> {
      * @throws IOException if unable to read image from path
      */
     public boolean equals(String path, double deviation) throws IOException {
-        BufferedImage image = ImageIO.read(new File(path));
+        BufferedImage image = BaselineCache.getInstance().getImage(new File(path));
         if (this.getImage() == image) return true;
+        Boolean prescreened = prescreen(image, deviation);
+        if (prescreened != null) return prescreened;
         return getImage() != null ? ImageProcessor.imagesAreEquals(getImage(), image, deviation) : image == null;
     }
 
@@ -366,11 +454,109 @@ public abstract class Snapshot<T extends Snapshot> {
      */
     public boolean equalsWithDiff(String path, String resultingImagePath,
                                   double deviation) throws IOException {
-        BufferedImage image = ImageIO.read(new File(path));
+        BufferedImage image = BaselineCache.getInstance().getImage(new File(path));
         if (this.getImage() == image) return true;
         return getImage() != null ? ImageProcessor.imagesAreEqualsWithDiff(getImage(), image, resultingImagePath, deviation) : image == null;
     }
 
+    /**
+     * Compare in luminance only, reusing the luminance planes kept with the snapshots.
+     *
+     * @param other     Snapshot to compare with
+     * @param deviation allowed deviation of the luminance while comparing.
+     * @return true if the the percentage of luminance differences
+     * between current image and provided one is less than or equal to <b>deviation</b>
+     */
+    public boolean equalsLuma(Snapshot other, double deviation) {
+        if (this == other) return true;
+        return getImage() != null ? ImageProcessor.lumaPlanesAreEquals(getLumaPlane(), other.getLumaPlane(), deviation) : other.getImage() == null;
+    }
+
+    /**
+     * @param image     BufferedImage to compare with.
+     * @param deviation allowed deviation of the luminance while comparing.
+     * @return true if the the percentage of luminance differences
+     * between current image and provided one is less than or equal to <b>deviation</b>
+     */
+    public boolean equalsLuma(BufferedImage image, double deviation) {
+        if (this.getImage() == image) return true;
+        return getImage() != null ? ImageProcessor.lumaPlanesAreEquals(getLumaPlane(), LumaPlane.of(image), deviation) : image == null;
+    }
+
+    /**
+     * Compare in luminance only against the luminance of the baseline kept in the {@link BaselineCache}.
+     *
+     * @param path      path to image to compare to.
+     * @param deviation allowed deviation of the luminance while comparing.
+     * @return true if the the percentage of luminance differences
+     * between current image and provided one is less than or equal to <b>deviation</b>
+     * @throws IOException if unable to read image from path
+     */
+    public boolean equalsLuma(String path, double deviation) throws IOException {
+        LumaPlane baseline = BaselineCache.getInstance().getLumaPlane(new File(path));
+        return getImage() != null ? ImageProcessor.lumaPlanesAreEquals(getLumaPlane(), baseline, deviation) : baseline == null;
+    }
+
+    /**
+     * @param other     Snapshot to compare with
+     * @param deviation allowed deviation while comparing.
+     * @return result of the comparison with its deviation and durations
+     */
+    public ComparisonResult compare(Snapshot other, double deviation) {
+        return compare(other.getImage(), deviation);
+    }
+
+    /**
+     * @param image     BufferedImage to compare with.
+     * @param deviation allowed deviation while comparing.
+     * @return result of the comparison with its deviation and durations
+     */
+    public ComparisonResult compare(BufferedImage image, double deviation) {
+        return ImageProcessor.compare(getImage(), image, deviation);
+    }
+
+    /**
+     * @param path      path to image to compare to.
+     * @param deviation allowed deviation while comparing.
+     * @return result of the comparison with its deviation and durations, including reading the image
+     * @throws IOException if unable to read image from path
+     */
+    public ComparisonResult compare(String path, double deviation) throws IOException {
+        long start = System.nanoTime();
+        BufferedImage image = BaselineCache.getInstance().getImage(new File(path));
+        long decodeNanos = System.nanoTime() - start;
+        return ImageProcessor.compare(getImage(), image, deviation).withDecodeNanos(decodeNanos);
+    }
+
+    /**
+     * @param path               path to image to compare to.
+     * @param resultingImagePath path with name to save to resulting images with diff
+     * @param deviation          allowed deviation while comparing
+     * @return result of the comparison with its deviation, durations and size of the resulting image
+     * @throws IOException if unable to read image from path
+     */
+    public ComparisonResult compareWithDiff(String path, String resultingImagePath, double deviation) throws IOException {
+        long start = System.nanoTime();
+        BufferedImage image = BaselineCache.getInstance().getImage(new File(path));
+        long decodeNanos = System.nanoTime() - start;
+        return ImageProcessor.compareWithDiff(getImage(), image, resultingImagePath, deviation).withDecodeNanos(decodeNanos);
+    }
+
+    /**
+     * @param other     image to compare with
+     * @param deviation allowed deviation of the comparison
+     * @return false if the perceptual hashes prove the images different, null if the images need to be compared
+     */
+    private Boolean prescreen(BufferedImage other, double deviation) {
+        if (!perceptualPrescreen || deviation > 0) return null;
+        BufferedImage current = getImage();
+        if (current == null || other == null
+                || current.getWidth() != other.getWidth() || current.getHeight() != other.getHeight()) return null;
+        // equal pixels give equal hashes, so differing hashes mean differing pixels
+        if (PerceptualHash.dHash(current) != PerceptualHash.dHash(other)) return false;
+        return null;
+    }
+
     /**
      * @return image hash code
      */
@@ -11,9 +11,11 @@ import org.apache.commons.io.IOUtils;
 
 import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 
 /**
  * Created by Glib_Briia on 17/06/2016.
@@ -28,8 +30,10 @@ public class FileUtil {
                 is = FileUtil.class.getClassLoader().getResourceAsStream(filePath);
             }
             // if the input stream is still null, this will avoid a non descriptive null pointer exception
-            if (is == null) new UnableTakeSnapshotException("Unable to load JS script, unable to locate resource stream.");
-            return IOUtils.toString(is);
+            if (is == null) throw new UnableTakeSnapshotException("Unable to load JS script, unable to locate resource stream.");
+            try (InputStream script = is) {
+                return IOUtils.toString(script, StandardCharsets.UTF_8);
+            }
         } catch (IOException e) {
             throw new UnableTakeSnapshotException("Unable to load JS script", e);
         }
@@ -42,4 +46,12 @@ public class FileUtil {
             throw new UnableSaveSnapshotException(e);
         }
     }
+
+    public static void writeImage(RenderedImage image, String extension, File fileToWriteTo) {
+        try {
+            ImageIO.write(image, extension, fileToWriteTo);
+        } catch (IOException e) {
+            throw new UnableSaveSnapshotException(e);
+        }
+    }
 }
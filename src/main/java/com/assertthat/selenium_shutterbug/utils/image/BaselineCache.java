@@ -0,0 +1,324 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.image;
+
+import com.assertthat.selenium_shutterbug.utils.image.model.LumaPlane;
+import com.assertthat.selenium_shutterbug.utils.image.model.PixelData;
+import com.assertthat.selenium_shutterbug.utils.image.model.TileHashIndex;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide cache of decoded baseline images, so images compared against
+ * over and over are only read and decoded from disk once.
+ * <p>
+ * Entries are keyed by file path and only served while the file's size and
+ * modification time are unchanged. Images are normalized to packed int rasters
+ * for direct comparison, which may take a copy of the decoded image. The least recently used entries
+ * are evicted once the total size exceeds the limit, a sixteenth of the maximum heap by default.
+ * Entries are held through soft references by default, so the garbage collector also drops them
+ * under memory pressure, and their size is no longer counted once the cache is next used.
+ * <p>
+ * The cache is filled by comparisons against image files, e.g. {@code Snapshot.equals(String, double)}.
+ * Call {@code setMaxBytes(0)} on {@link #getInstance()} to turn it off.
+ * <p>
+ * The luminance planes of baselines compared in luminance only, and the tile hash indexes
+ * of baselines compared tile by tile, are cached the same way.
+ * <p>
+ * Cached images are shared, callers must not modify them.
+ */
+public final class BaselineCache {
+
+    private static final BaselineCache INSTANCE = new BaselineCache(Runtime.getRuntime().maxMemory() / 16);
+    private static final String LUMA_SUFFIX = "#luma";
+    private static final String TILES_SUFFIX = "#tiles";
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ReferenceQueue<Object> cleared = new ReferenceQueue<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long maxBytes;
+    private long bytes;
+    private boolean softReferences = true;
+
+    BaselineCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the process-wide cache
+     */
+    public static BaselineCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Read the image from the cache, decoding and caching it if missing or if the file has changed.
+     *
+     * @param file image file
+     * @return decoded image, null if no registered reader can decode the file
+     * @throws IOException if unable to read image from file
+     */
+    public BufferedImage getImage(File file) throws IOException {
+        String path = file.getAbsolutePath();
+        long length = file.length();
+        long lastModified = file.lastModified();
+        synchronized (this) {
+            expunge();
+            Entry entry = entries.get(path);
+            if (entry != null) {
+                BufferedImage image = (BufferedImage) entry.get();
+                if (image != null && entry.length == length && entry.lastModified == lastModified) {
+                    hits.incrementAndGet();
+                    return image;
+                }
+                remove(path);
+            }
+        }
+        misses.incrementAndGet();
+        BufferedImage image = ImageIO.read(file);
+        if (image == null) {
+            return null;
+        }
+        image = normalize(image);
+        put(path, image, (long) image.getWidth() * image.getHeight() * 4, length, lastModified);
+        return image;
+    }
+
+    /**
+     * Read the luminance of the image from the cache, computing and caching it if missing or if the file has changed.
+     * Only the luminance is cached, a quarter of the size of the decoded image.
+     *
+     * @param file image file
+     * @return luminance of the image, null if no registered reader can decode the file
+     * @throws IOException if unable to read image from file
+     */
+    public LumaPlane getLumaPlane(File file) throws IOException {
+        String key = file.getAbsolutePath() + LUMA_SUFFIX;
+        long length = file.length();
+        long lastModified = file.lastModified();
+        synchronized (this) {
+            expunge();
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                Object luma = entry.get();
+                if (luma != null && entry.length == length && entry.lastModified == lastModified) {
+                    hits.incrementAndGet();
+                    return (LumaPlane) luma;
+                }
+                remove(key);
+            }
+        }
+        misses.incrementAndGet();
+        BufferedImage image;
+        synchronized (this) {
+            Entry entry = entries.get(file.getAbsolutePath());
+            image = entry != null && entry.length == length && entry.lastModified == lastModified ? (BufferedImage) entry.get() : null;
+        }
+        if (image == null) {
+            image = ImageIO.read(file);
+        }
+        if (image == null) {
+            return null;
+        }
+        LumaPlane luma = LumaPlane.of(image);
+        put(key, luma, luma.getBytes(), length, lastModified);
+        return luma;
+    }
+
+    /**
+     * Read the tile hash index of the image from the cache, loading it from its sidecar file or building it
+     * if missing or if the file has changed. See {@link TileHashIndex#forBaseline(File, PixelData, int)}.
+     *
+     * @param file     image file
+     * @param image    decoded image of the file, e.g. as returned by {@link #getImage(File)}
+     * @param tileSize tile width and height in pixels
+     * @return tile hash index of the image
+     */
+    public TileHashIndex getTileIndex(File file, BufferedImage image, int tileSize) {
+        String key = file.getAbsolutePath() + TILES_SUFFIX + tileSize;
+        long length = file.length();
+        long lastModified = file.lastModified();
+        synchronized (this) {
+            expunge();
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                Object tiles = entry.get();
+                if (tiles != null && entry.length == length && entry.lastModified == lastModified) {
+                    hits.incrementAndGet();
+                    return (TileHashIndex) tiles;
+                }
+                remove(key);
+            }
+        }
+        misses.incrementAndGet();
+        TileHashIndex tiles = TileHashIndex.forBaseline(file, PixelData.of(image), tileSize);
+        put(key, tiles, tiles.getTileCount() * 8L, length, lastModified);
+        return tiles;
+    }
+
+    private synchronized void put(String path, Object value, long valueBytes, long length, long lastModified) {
+        expunge();
+        Entry entry = new Entry(path, value, valueBytes, length, lastModified, softReferences ? cleared : null);
+        remove(path);
+        if (entry.bytes > maxBytes) {
+            return;
+        }
+        entries.put(path, entry);
+        bytes += entry.bytes;
+        evict();
+    }
+
+    private void remove(String path) {
+        Entry removed = entries.remove(path);
+        if (removed != null) {
+            bytes -= removed.bytes;
+        }
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().getValue().bytes;
+            eldest.remove();
+        }
+    }
+
+    /**
+     * Drop the entries whose images the garbage collector has reclaimed.
+     */
+    private void expunge() {
+        for (Reference<?> reference = cleared.poll(); reference != null; reference = cleared.poll()) {
+            Entry entry = ((SoftValue) reference).entry;
+            // removed by key and entry, as the path may have been cached again since
+            if (entries.remove(entry.key, entry)) {
+                bytes -= entry.bytes;
+            }
+        }
+    }
+
+    /**
+     * Clear the soft references of the cached entries as the garbage collector would under memory pressure.
+     */
+    synchronized void clearSoftReferences() {
+        for (Entry entry : entries.values()) {
+            if (entry.softValue != null) {
+                entry.softValue.clear();
+                entry.softValue.enqueue();
+            }
+        }
+    }
+
+    private static BufferedImage normalize(BufferedImage image) {
+        int type = image.getType();
+        if (type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) {
+            return image;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        BufferedImage normalized = new BufferedImage(width, height,
+                image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        normalized.setRGB(0, 0, width, height, image.getRGB(0, 0, width, height, null, 0, width), 0, width);
+        return normalized;
+    }
+
+    /**
+     * @param maxBytes upper limit of the decoded image sizes held, 0 disables caching
+     *                 and drops the cached entries. A sixteenth of the maximum heap by default
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        expunge();
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @param softReferences whether newly cached images may be reclaimed by the garbage collector
+     *                       under memory pressure, true by default
+     */
+    public synchronized void setSoftReferences(boolean softReferences) {
+        this.softReferences = softReferences;
+    }
+
+    /**
+     * @return total size of the cached decoded images in bytes
+     */
+    public synchronized long getBytes() {
+        expunge();
+        return bytes;
+    }
+
+    public synchronized int size() {
+        expunge();
+        return entries.size();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    private static final class Entry {
+        private final String key;
+        private final Object value;
+        private final SoftValue softValue;
+        private final long length;
+        private final long lastModified;
+        private final long bytes;
+
+        /**
+         * @param queue queue to hold the value softly with, null to hold it strongly
+         */
+        Entry(String key, Object value, long bytes, long length, long lastModified, ReferenceQueue<Object> queue) {
+            this.key = key;
+            this.value = queue == null ? value : null;
+            this.softValue = queue == null ? null : new SoftValue(value, queue, this);
+            this.length = length;
+            this.lastModified = lastModified;
+            this.bytes = bytes;
+        }
+
+        Object get() {
+            return softValue == null ? value : softValue.get();
+        }
+    }
+
+    private static final class SoftValue extends SoftReference<Object> {
+        private final Entry entry;
+
+        SoftValue(Object value, ReferenceQueue<Object> queue, Entry entry) {
+            super(value, queue);
+            this.entry = entry;
+        }
+    }
+}
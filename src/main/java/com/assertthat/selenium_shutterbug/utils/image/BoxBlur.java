@@ -0,0 +1,213 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.image;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * Box blur averaging every sample over a square of (2 * radius + 1) pixels per side,
+ * computed with running sums in two separable passes, so the cost per pixel does not depend on the radius.
+ * <p>
+ * Output is the same as of a {@link java.awt.image.ConvolveOp} with an equally weighted kernel
+ * and {@link java.awt.image.ConvolveOp#EDGE_NO_OP}: pixels closer than the radius to the edge
+ * of the blurred area are left unchanged, and sums are scaled by the kernel weight in fixed point.
+ * <p>
+ * Rows are processed top to bottom keeping only the horizontal sums of the last (2 * radius + 1) rows,
+ * so images and regions can be blurred in place. Those row buffers are kept per thread and reused.
+ */
+public final class BoxBlur {
+
+    public static final int DEFAULT_RADIUS = 3;
+
+    private static final int SHIFT = 24;
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final int radius;
+    private final long weight;
+
+    /**
+     * @param radius number of pixels on each side of a pixel averaged with it
+     */
+    public BoxBlur(int radius) {
+        if (radius < 1) {
+            throw new IllegalArgumentException("Blur radius must be positive: " + radius);
+        }
+        int size = 2 * radius + 1;
+        this.radius = radius;
+        // Same float kernel weight as of a ConvolveOp, truncated to fixed point
+        this.weight = (long) ((1f / (size * size)) * (1 << SHIFT));
+    }
+
+    public int getRadius() {
+        return radius;
+    }
+
+    /**
+     * @param source image to blur, left unchanged
+     * @return blurred copy of the image, of the same type
+     */
+    public BufferedImage filter(BufferedImage source) {
+        ColorModel colorModel = source.getColorModel();
+        WritableRaster raster = source.copyData(source.getRaster().createCompatibleWritableRaster());
+        BufferedImage copy = new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null);
+        apply(copy, 0, 0, copy.getWidth(), copy.getHeight());
+        return copy;
+    }
+
+    /**
+     * Blur the whole image in place.
+     *
+     * @param image image to blur
+     * @return the same image
+     */
+    public BufferedImage apply(BufferedImage image) {
+        apply(image, 0, 0, image.getWidth(), image.getHeight());
+        return image;
+    }
+
+    /**
+     * Blur a region of the image in place, pixels outside the region are neither read nor written.
+     *
+     * @param image  image to blur
+     * @param x      left of the region
+     * @param y      top of the region
+     * @param width  width of the region
+     * @param height height of the region
+     */
+    public void apply(BufferedImage image, int x, int y, int width, int height) {
+        blur(image, x, y, width, height, null);
+    }
+
+    /**
+     * Blur the whole image in place except a region, which keeps its pixels
+     * but still contributes to the blur of the pixels around it.
+     *
+     * @param image  image to blur
+     * @param x      left of the region to keep
+     * @param y      top of the region to keep
+     * @param width  width of the region to keep
+     * @param height height of the region to keep
+     */
+    public void applyExcept(BufferedImage image, int x, int y, int width, int height) {
+        blur(image, 0, 0, image.getWidth(), image.getHeight(), new Rectangle(x, y, width, height));
+    }
+
+    /**
+     * Blur a region of the image in place except a part of it.
+     *
+     * @param image image to blur
+     * @param area  region to blur, pixels outside it are neither read nor written
+     * @param keep  part of the region keeping its pixels, null to blur the whole region
+     */
+    public void apply(BufferedImage image, Rectangle area, Rectangle keep) {
+        blur(image, area.x, area.y, area.width, area.height, keep);
+    }
+
+    private void blur(BufferedImage image, int x, int y, int width, int height, Rectangle keep) {
+        int size = 2 * radius + 1;
+        if (width < size || height < size) {
+            return;
+        }
+        WritableRaster raster = image.getRaster();
+        int bands = raster.getNumBands();
+        int rowLength = width * bands;
+        Scratch scratch = SCRATCH.get().ensure(size, rowLength);
+        int[] row = scratch.row;
+        int[][] sums = scratch.sums;
+        int[] column = scratch.column;
+        int from = radius * bands;
+        int to = (width - radius) * bands;
+        Arrays.fill(column, 0, rowLength, 0);
+        // columns of the region to keep, relative to the blurred area
+        int keepFrom = keep == null ? 0 : Math.max(from, (keep.x - x) * bands);
+        int keepTo = keep == null ? 0 : Math.min(to, (keep.x + keep.width - x) * bands);
+        for (int i = 0; i < size; i++) {
+            raster.getPixels(x, y + i, width, 1, row);
+            horizontalSums(row, sums[i], width, bands);
+            add(column, sums[i], from, to);
+        }
+        for (int outY = radius; outY < height - radius; outY++) {
+            raster.getPixels(x, y + outY, width, 1, row);
+            boolean keepRow = keep != null && y + outY >= keep.y && y + outY < keep.y + keep.height;
+            if (keepRow && keepFrom < keepTo) {
+                scale(column, row, from, keepFrom);
+                scale(column, row, keepTo, to);
+            } else {
+                scale(column, row, from, to);
+            }
+            raster.setPixels(x, y + outY, width, 1, row);
+            int next = outY + radius + 1;
+            if (next < height) {
+                int[] oldest = sums[(outY - radius) % size];
+                subtract(column, oldest, from, to);
+                raster.getPixels(x, y + next, width, 1, row);
+                horizontalSums(row, oldest, width, bands);
+                add(column, oldest, from, to);
+            }
+        }
+    }
+
+    private void scale(int[] column, int[] row, int from, int to) {
+        for (int i = from; i < to; i++) {
+            row[i] = (int) ((column[i] * weight) >>> SHIFT);
+        }
+    }
+
+    /**
+     * Sum every sample with its <b>radius</b> neighbours on each side, for the pixels at least radius from the edges.
+     */
+    private void horizontalSums(int[] row, int[] sums, int width, int bands) {
+        int size = 2 * radius + 1;
+        for (int band = 0; band < bands; band++) {
+            int sum = 0;
+            for (int px = 0; px < size; px++) {
+                sum += row[px * bands + band];
+            }
+            sums[radius * bands + band] = sum;
+            for (int px = radius + 1; px < width - radius; px++) {
+                sum += row[(px + radius) * bands + band] - row[(px - radius - 1) * bands + band];
+                sums[px * bands + band] = sum;
+            }
+        }
+    }
+
+    private static void add(int[] column, int[] sums, int from, int to) {
+        for (int i = from; i < to; i++) {
+            column[i] += sums[i];
+        }
+    }
+
+    private static void subtract(int[] column, int[] sums, int from, int to) {
+        for (int i = from; i < to; i++) {
+            column[i] -= sums[i];
+        }
+    }
+
+    /**
+     * Row buffers of a thread, grown to the largest row blurred so far.
+     */
+    private static final class Scratch {
+        private int[] row = new int[0];
+        private int[] column = new int[0];
+        private int[][] sums = new int[0][];
+
+        Scratch ensure(int rows, int rowLength) {
+            if (row.length < rowLength) {
+                row = new int[rowLength];
+                column = new int[rowLength];
+                sums = new int[0][];
+            }
+            if (sums.length < rows) {
+                sums = new int[rows][row.length];
+            }
+            return this;
+        }
+    }
+}
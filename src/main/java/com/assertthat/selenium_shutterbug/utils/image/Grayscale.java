@@ -0,0 +1,157 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.image;
+
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorConvertOp;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * In place conversion of images to gray, as done by a {@link ColorConvertOp} to {@link ColorSpace#CS_GRAY}:
+ * sRGB samples are linearized, weighted by the luminance of the sRGB primaries and encoded back to sRGB.
+ * <p>
+ * The {@link Mode#FAST} conversion does it with lookup tables and integer sums straight on the backing
+ * arrays of TYPE_INT_RGB, TYPE_INT_ARGB, TYPE_3BYTE_BGR and TYPE_4BYTE_ABGR images, staying within
+ * one level of the color management result. Other image types, and the {@link Mode#ICC} conversion,
+ * go through the color management module. Alpha is left unchanged.
+ */
+public final class Grayscale {
+
+    public enum Mode {
+        /**
+         * Fixed point conversion, falling back to {@link #ICC} for image types it does not handle.
+         */
+        FAST,
+        /**
+         * Conversion through the color management module.
+         */
+        ICC
+    }
+
+    private static final int BITS = 14;
+    private static final int ONE = 1 << BITS;
+    // luminance of the sRGB primaries adapted to D50, as in the sRGB profile
+    private static final int[] RED = linearTable(0.2225);
+    private static final int[] GREEN = linearTable(0.7169);
+    private static final int[] BLUE = linearTable(0.0606);
+    private static final byte[] ENCODE = encodeTable();
+
+    private Grayscale() {
+    }
+
+    /**
+     * @param image image to convert in place
+     * @param mode  conversion to use
+     * @return the same image
+     */
+    public static BufferedImage apply(BufferedImage image, Mode mode) {
+        if (mode == Mode.ICC || !applyFast(image)) {
+            ColorConvertOp op = new ColorConvertOp(ColorSpace.getInstance(ColorSpace.CS_GRAY), null);
+            op.filter(image, image);
+        }
+        return image;
+    }
+
+    /**
+     * @return false if the image layout is not handled
+     */
+    private static boolean applyFast(BufferedImage image) {
+        WritableRaster raster = image.getRaster();
+        DataBuffer buffer = raster.getDataBuffer();
+        int translateX = raster.getSampleModelTranslateX();
+        int translateY = raster.getSampleModelTranslateY();
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB: {
+                if (!(buffer instanceof DataBufferInt) || buffer.getNumBanks() != 1
+                        || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)) {
+                    return false;
+                }
+                int scanline = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+                int offset = buffer.getOffset() - translateY * scanline - translateX;
+                convert(((DataBufferInt) buffer).getData(), offset, scanline, image.getWidth(), image.getHeight());
+                return true;
+            }
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR: {
+                if (!(buffer instanceof DataBufferByte) || buffer.getNumBanks() != 1
+                        || !(raster.getSampleModel() instanceof ComponentSampleModel)) {
+                    return false;
+                }
+                ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+                int scanline = sampleModel.getScanlineStride();
+                int pixelStride = sampleModel.getPixelStride();
+                int offset = buffer.getOffset() - translateY * scanline - translateX * pixelStride;
+                convert(((DataBufferByte) buffer).getData(), offset, scanline, pixelStride, sampleModel.getBandOffsets(),
+                        image.getWidth(), image.getHeight());
+                return true;
+            }
+            default:
+                return false;
+        }
+    }
+
+    private static void convert(int[] data, int offset, int scanline, int width, int height) {
+        for (int y = 0; y < height; y++) {
+            int from = offset + y * scanline;
+            int to = from + width;
+            for (int i = from; i < to; i++) {
+                int pixel = data[i];
+                int gray = ENCODE[RED[(pixel >> 16) & 0xff] + GREEN[(pixel >> 8) & 0xff] + BLUE[pixel & 0xff]] & 0xff;
+                data[i] = (pixel & 0xff000000) | gray << 16 | gray << 8 | gray;
+            }
+        }
+    }
+
+    private static void convert(byte[] data, int offset, int scanline, int pixelStride, int[] bandOffsets,
+                                int width, int height) {
+        int red = bandOffsets[0];
+        int green = bandOffsets[1];
+        int blue = bandOffsets[2];
+        for (int y = 0; y < height; y++) {
+            int from = offset + y * scanline;
+            int to = from + width * pixelStride;
+            for (int i = from; i < to; i += pixelStride) {
+                byte gray = ENCODE[RED[data[i + red] & 0xff] + GREEN[data[i + green] & 0xff] + BLUE[data[i + blue] & 0xff]];
+                data[i + red] = gray;
+                data[i + green] = gray;
+                data[i + blue] = gray;
+            }
+        }
+    }
+
+    /**
+     * @return linear light of every sRGB sample times the weight, in fixed point
+     */
+    private static int[] linearTable(double weight) {
+        int[] table = new int[256];
+        for (int i = 0; i < table.length; i++) {
+            double value = i / 255.0;
+            double linear = value <= 0.04045 ? value / 12.92 : Math.pow((value + 0.055) / 1.055, 2.4);
+            table[i] = (int) Math.round(linear * weight * ONE);
+        }
+        return table;
+    }
+
+    /**
+     * @return sRGB sample of every fixed point linear light value, with room for rounding of the weighted sums
+     */
+    private static byte[] encodeTable() {
+        byte[] table = new byte[ONE + 3];
+        for (int i = 0; i < table.length; i++) {
+            double linear = Math.min(1.0, (double) i / ONE);
+            double value = linear <= 0.0031308 ? linear * 12.92 : 1.055 * Math.pow(linear, 1 / 2.4) - 0.055;
+            table[i] = (byte) Math.round(value * 255);
+        }
+        return table;
+    }
+}
@@ -0,0 +1,269 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.image;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide pool of images, so that captures, stitching canvases and decoded tiles
+ * of repeated shots reuse the same pixel buffers instead of allocating full size images every time.
+ * <p>
+ * Images are pooled by width, height and type, for TYPE_INT_RGB, TYPE_INT_ARGB, TYPE_3BYTE_BGR and TYPE_4BYTE_ABGR.
+ * An image handed out by the pool goes back to it with {@link #release(BufferedImage)}, which also accepts
+ * subimages of it. Released images over the size limit are dropped, least recently pooled sizes first.
+ * <p>
+ * A released image must no longer be used, nor any subimage of it.
+ */
+public final class ImagePool {
+
+    private static final ImagePool INSTANCE = new ImagePool(Runtime.getRuntime().maxMemory() / 8);
+
+    private final LinkedHashMap<Long, ArrayDeque<BufferedImage>> free = new LinkedHashMap<>(16, 0.75f, true);
+    // layout of the images handed out, by the buffer they share with their subimages
+    private final Map<DataBuffer, Layout> issued = new WeakHashMap<>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private long maxBytes;
+    private long bytes;
+
+    ImagePool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the process-wide pool
+     */
+    public static ImagePool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param width  width of the image
+     * @param height height of the image
+     * @param type   type of the image
+     * @return blank image, reused if one of the same size and type was released
+     */
+    public BufferedImage acquire(int width, int height, int type) {
+        BufferedImage image = take(width, height, type);
+        if (image == null) {
+            return allocate(width, height, type);
+        }
+        Graphics2D g = image.createGraphics();
+        g.setComposite(AlphaComposite.Clear);
+        g.fillRect(0, 0, width, height);
+        g.dispose();
+        return image;
+    }
+
+    /**
+     * Same as {@link #acquire(int, int, int)} for images whose every pixel is overwritten right away.
+     */
+    BufferedImage acquireUncleared(int width, int height, int type) {
+        BufferedImage image = take(width, height, type);
+        return image != null ? image : allocate(width, height, type);
+    }
+
+    /**
+     * Give an image back to the pool. Neither the image nor any other image sharing its pixels
+     * may be used afterwards, as the pixels are handed out again.
+     *
+     * @param image image handed out by the pool or a subimage of it, other images are ignored
+     */
+    public void release(BufferedImage image) {
+        if (image == null) {
+            return;
+        }
+        synchronized (this) {
+            DataBuffer buffer = image.getRaster().getDataBuffer();
+            Layout layout = issued.remove(buffer);
+            if (layout == null) {
+                return;
+            }
+            // the image handed out may be gone while its subimages are still in use
+            BufferedImage pooled = new BufferedImage(layout.colorModel,
+                    Raster.createWritableRaster(layout.sampleModel, buffer, null), false, null);
+            long size = bytes(pooled.getWidth(), pooled.getHeight(), pooled.getType());
+            if (size > maxBytes) {
+                return;
+            }
+            free.computeIfAbsent(key(pooled.getWidth(), pooled.getHeight(), pooled.getType()), k -> new ArrayDeque<>()).push(pooled);
+            bytes += size;
+            evict();
+        }
+    }
+
+    /**
+     * Decode an image into a pooled image of the layout the decoder produces.
+     *
+     * @param input file, stream or image input stream to decode, closed once read
+     * @return decoded image to be released when no longer used, null if no registered reader can decode the input
+     * @throws IOException if unable to read the image
+     */
+    public BufferedImage read(Object input) throws IOException {
+        try (ImageInputStream stream = input instanceof ImageInputStream
+                ? (ImageInputStream) input : ImageIO.createImageInputStream(input)) {
+            if (stream == null) {
+                throw new IOException("Unable to read image from " + input);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                ImageReadParam param = reader.getDefaultReadParam();
+                BufferedImage destination = null;
+                int type = pooledType(reader);
+                if (type != BufferedImage.TYPE_CUSTOM) {
+                    destination = acquireUncleared(reader.getWidth(0), reader.getHeight(0), type);
+                    param.setDestination(destination);
+                }
+                try {
+                    return reader.read(0, param);
+                } catch (IOException | RuntimeException e) {
+                    release(destination);
+                    throw e;
+                }
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static int pooledType(ImageReader reader) throws IOException {
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        while (types.hasNext()) {
+            int type = types.next().getBufferedImageType();
+            if (isPooled(type)) {
+                return type;
+            }
+        }
+        return BufferedImage.TYPE_CUSTOM;
+    }
+
+    private synchronized BufferedImage take(int width, int height, int type) {
+        if (!isPooled(type)) {
+            return null;
+        }
+        long key = key(width, height, type);
+        ArrayDeque<BufferedImage> images = free.get(key);
+        if (images == null || images.isEmpty()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        BufferedImage image = images.pop();
+        if (images.isEmpty()) {
+            free.remove(key);
+        }
+        bytes -= bytes(width, height, type);
+        issued.put(image.getRaster().getDataBuffer(), new Layout(image));
+        hits.incrementAndGet();
+        return image;
+    }
+
+    private BufferedImage allocate(int width, int height, int type) {
+        BufferedImage image = new BufferedImage(width, height, type);
+        if (isPooled(type)) {
+            synchronized (this) {
+                issued.put(image.getRaster().getDataBuffer(), new Layout(image));
+            }
+        }
+        return image;
+    }
+
+    private void evict() {
+        Iterator<ArrayDeque<BufferedImage>> eldest = free.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            ArrayDeque<BufferedImage> images = eldest.next();
+            while (bytes > maxBytes && !images.isEmpty()) {
+                BufferedImage image = images.removeLast();
+                bytes -= bytes(image.getWidth(), image.getHeight(), image.getType());
+            }
+            if (images.isEmpty()) {
+                eldest.remove();
+            }
+        }
+    }
+
+    private static boolean isPooled(int type) {
+        return type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB
+                || type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR;
+    }
+
+    private static long key(int width, int height, int type) {
+        return (long) width << 36 | (long) height << 8 | type;
+    }
+
+    private static long bytes(int width, int height, int type) {
+        return (long) width * height * (type == BufferedImage.TYPE_3BYTE_BGR ? 3 : 4);
+    }
+
+    /**
+     * @param maxBytes upper limit of the released image sizes held, 0 disables pooling.
+     *                 An eighth of the maximum heap by default
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return total size of the pooled images in bytes
+     */
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public synchronized void clear() {
+        free.clear();
+        bytes = 0;
+    }
+
+    public void resetCounters() {
+        hits.set(0);
+        misses.set(0);
+    }
+
+    private static final class Layout {
+        private final ColorModel colorModel;
+        private final SampleModel sampleModel;
+
+        Layout(BufferedImage image) {
+            this.colorModel = image.getColorModel();
+            this.sampleModel = image.getSampleModel();
+        }
+    }
+}
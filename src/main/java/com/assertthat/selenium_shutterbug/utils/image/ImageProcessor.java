@@ -5,21 +5,33 @@
 
 package com.assertthat.selenium_shutterbug.utils.image;
 
+import com.assertthat.selenium_shutterbug.utils.file.FileUtil;
+import com.assertthat.selenium_shutterbug.utils.image.model.BoundedDeviation;
+import com.assertthat.selenium_shutterbug.utils.image.model.ComparisonResult;
 import com.assertthat.selenium_shutterbug.utils.image.model.ImageData;
+import com.assertthat.selenium_shutterbug.utils.image.model.ImagePyramid;
+import com.assertthat.selenium_shutterbug.utils.image.model.LumaPlane;
+import com.assertthat.selenium_shutterbug.utils.image.model.SampledDeviation;
+import com.assertthat.selenium_shutterbug.utils.image.model.StructuralSimilarity;
+import com.assertthat.selenium_shutterbug.utils.image.model.TileHashIndex;
 import com.assertthat.selenium_shutterbug.utils.web.Coordinates;
 
-import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 import java.awt.*;
-import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
-import java.awt.image.BufferedImageOp;
-import java.awt.image.ColorConvertOp;
 import java.awt.image.ColorModel;
-import java.awt.image.ConvolveOp;
-import java.awt.image.Kernel;
 import java.awt.image.PixelGrabber;
+import java.awt.image.RasterFormatException;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Created by Glib_Briia on 17/06/2016.
@@ -27,29 +39,58 @@ import java.io.IOException;
 public class ImageProcessor {
 
     private static final int ARCH_SIZE = 10;
-    private static final float[] matrix = new float[49];
+    private static final BoxBlur BLUR = new BoxBlur(BoxBlur.DEFAULT_RADIUS);
     private static double pixelError = Double.MAX_VALUE;
+    private static volatile ForkJoinPool comparisonPool;
+    private static volatile Grayscale.Mode grayscaleMode = Grayscale.Mode.FAST;
+    private static volatile int canonicalImageType = BufferedImage.TYPE_INT_RGB;
 
-    static {
-        for (int i = 0; i < 49; i++)
-            matrix[i] = 1.0f / 49.0f;
+    public static BufferedImage blur(BufferedImage sourceImage) {
+        return BLUR.filter(sourceImage);
     }
 
-    public static BufferedImage blur(BufferedImage sourceImage) {
-        BufferedImageOp options = new ConvolveOp(new Kernel(7, 7, matrix), ConvolveOp.EDGE_NO_OP, null);
-        return options.filter(sourceImage, null);
+    /**
+     * @param sourceImage image to blur, left unchanged
+     * @param radius      number of pixels on each side of a pixel averaged with it, 3 by default
+     * @return blurred copy of the image
+     */
+    public static BufferedImage blur(BufferedImage sourceImage, int radius) {
+        return new BoxBlur(radius).filter(sourceImage);
+    }
+
+    /**
+     * Blur the image without allocating a copy of it.
+     *
+     * @param sourceImage image to blur
+     * @param radius      number of pixels on each side of a pixel averaged with it, 3 by default
+     * @return the same image, blurred
+     */
+    public static BufferedImage blurInPlace(BufferedImage sourceImage, int radius) {
+        return (radius == BLUR.getRadius() ? BLUR : new BoxBlur(radius)).apply(sourceImage);
     }
 
     public static BufferedImage highlight(BufferedImage sourceImage, Coordinates coords, Color color, int lineWidth) {
-        byte defaultLineWidth = 3;
         Graphics2D g = sourceImage.createGraphics();
-        g.setPaint(color);
-        g.setStroke(new BasicStroke(lineWidth == 0 ? defaultLineWidth : lineWidth));
-        g.drawRoundRect(coords.getX(), coords.getY(), coords.getWidth(), coords.getHeight(), ARCH_SIZE, ARCH_SIZE);
+        highlight(g, new Rectangle(coords.getX(), coords.getY(), coords.getWidth(), coords.getHeight()), color, lineWidth);
         g.dispose();
         return sourceImage;
     }
 
+    /**
+     * Draw the highlight with graphics shared by several drawing operations.
+     *
+     * @param g         graphics to draw with
+     * @param area      area to draw the highlight around
+     * @param color     color of the line
+     * @param lineWidth width of the line, 0 for the default of 3
+     */
+    public static void highlight(Graphics2D g, Rectangle area, Color color, int lineWidth) {
+        byte defaultLineWidth = 3;
+        g.setPaint(color);
+        g.setStroke(new BasicStroke(lineWidth == 0 ? defaultLineWidth : lineWidth));
+        g.drawRoundRect(area.x, area.y, area.width, area.height, ARCH_SIZE, ARCH_SIZE);
+    }
+
     public static BufferedImage addText(BufferedImage sourceImage, int x, int y, String text, Color color, Font font) {
         Graphics2D g = sourceImage.createGraphics();
         g.setPaint(color);
@@ -63,29 +104,51 @@ public class ImageProcessor {
         return sourceImage.getSubimage(coords.getX(), coords.getY(), coords.getWidth(), coords.getHeight());
     }
 
+    /**
+     * Blur the area of the element in place, the rest of the image is left untouched.
+     *
+     * @param sourceImage image to blur
+     * @param coords      coordinates of the area to blur
+     * @return the same image, blurred within the area
+     */
     public static BufferedImage blurArea(BufferedImage sourceImage, Coordinates coords) {
-        BufferedImage blurredImage = blur(sourceImage.getSubimage(coords.getX(), coords.getY(), coords.getWidth(), coords.getHeight()));
-        return getBufferedImage(sourceImage, coords, blurredImage, sourceImage);
+        checkInside(sourceImage, coords);
+        BLUR.apply(sourceImage, coords.getX(), coords.getY(), coords.getWidth(), coords.getHeight());
+        return sourceImage;
     }
 
+    /**
+     * Convert the area of the element to gray in place, the rest of the image is left untouched.
+     *
+     * @param sourceImage image to convert
+     * @param coords      coordinates of the area to convert
+     * @return the same image, gray within the area
+     */
     public static BufferedImage monochromeArea(BufferedImage sourceImage, Coordinates coords) {
-        BufferedImage monochromedImage = convertToGrayAndWhite(sourceImage.getSubimage(coords.getX(), coords.getY(), coords.getWidth(), coords.getHeight()));
-        return getBufferedImage(sourceImage, coords, monochromedImage, sourceImage);
+        convertToGrayAndWhite(sourceImage.getSubimage(coords.getX(), coords.getY(), coords.getWidth(), coords.getHeight()));
+        return sourceImage;
     }
 
+    /**
+     * Blur the whole image in place except the area of the element.
+     *
+     * @param sourceImage image to blur
+     * @param coords      coordinates of the area to keep
+     * @return the same image, blurred outside the area
+     */
     public static BufferedImage blurExceptArea(BufferedImage sourceImage, Coordinates coords) {
-        BufferedImage subImage = sourceImage.getSubimage(coords.getX(), coords.getY(), coords.getWidth(), coords.getHeight());
-        BufferedImage blurredImage = blur(sourceImage);
-        return getBufferedImage(sourceImage, coords, subImage, blurredImage);
+        checkInside(sourceImage, coords);
+        BLUR.applyExcept(sourceImage, coords.getX(), coords.getY(), coords.getWidth(), coords.getHeight());
+        return sourceImage;
     }
 
-    private static BufferedImage getBufferedImage(BufferedImage sourceImage, Coordinates coords, BufferedImage subImage, BufferedImage blurredImage) {
-        BufferedImage combined = new BufferedImage(sourceImage.getWidth(), sourceImage.getHeight(), BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = combined.createGraphics();
-        g.drawImage(blurredImage, 0, 0, null);
-        g.drawImage(subImage, coords.getX(), coords.getY(), null);
-        g.dispose();
-        return combined;
+    private static void checkInside(BufferedImage sourceImage, Coordinates coords) {
+        if (coords.getX() < 0 || coords.getY() < 0 || coords.getWidth() <= 0 || coords.getHeight() <= 0
+                || coords.getX() + coords.getWidth() > sourceImage.getWidth()
+                || coords.getY() + coords.getHeight() > sourceImage.getHeight()) {
+            throw new RasterFormatException("Area " + coords.getX() + "," + coords.getY() + " " + coords.getWidth() + "x" + coords.getHeight()
+                    + " is outside of the image " + sourceImage.getWidth() + "x" + sourceImage.getHeight());
+        }
     }
 
     public static BufferedImage cropAround(BufferedImage sourceImage, Coordinates coords, int offsetX, int offsetY) {
@@ -99,6 +162,143 @@ public class ImageProcessor {
         return sourceImage;
     }
 
+    /**
+     * Cut out several elements with one graphics context.
+     *
+     * @param sourceImage image to cut out from
+     * @param coords      coordinates of the elements
+     * @param offsetX     offsetX around every element
+     * @param offsetY     offsetY around every element
+     * @return the same image
+     */
+    public static BufferedImage cutOut(BufferedImage sourceImage, List<Coordinates> coords, int offsetX, int offsetY) {
+        Graphics2D g = sourceImage.createGraphics();
+        g.setColor(Color.white);
+        for (Coordinates element : coords) {
+            g.fillRect(element.getX() - offsetX, element.getY() - offsetY,
+                    element.getScrollWidth() + offsetX * 2, element.getScrollHeight() + offsetY * 2);
+        }
+        g.dispose();
+        return sourceImage;
+    }
+
+    /**
+     * Highlight several elements with one graphics context.
+     *
+     * @param sourceImage image to draw on
+     * @param coords      coordinates of the elements
+     * @param color       color of the line
+     * @param lineWidth   width of the line, 0 for the default of 3
+     * @return the same image
+     */
+    public static BufferedImage highlight(BufferedImage sourceImage, List<Coordinates> coords, Color color, int lineWidth) {
+        Graphics2D g = sourceImage.createGraphics();
+        for (Rectangle area : areas(coords)) {
+            highlight(g, area, color, lineWidth);
+        }
+        g.dispose();
+        return sourceImage;
+    }
+
+    /**
+     * Blur the areas of several elements in place, one after the other, same as {@link #blurArea}
+     * for each of them. No pixel outside the areas is changed.
+     *
+     * @param sourceImage image to blur
+     * @param coords      coordinates of the elements
+     * @return the same image, blurred within the areas
+     */
+    public static BufferedImage blurAreas(BufferedImage sourceImage, List<Coordinates> coords) {
+        coords.forEach(element -> checkInside(sourceImage, element));
+        for (Rectangle area : areas(coords)) {
+            BLUR.apply(sourceImage, area, null);
+        }
+        return sourceImage;
+    }
+
+    /**
+     * Convert the areas of several elements to gray in place, every pixel once even where the areas overlap.
+     *
+     * @param sourceImage image to convert
+     * @param coords      coordinates of the elements
+     * @return the same image, gray within the areas
+     */
+    public static BufferedImage monochromeAreas(BufferedImage sourceImage, List<Coordinates> coords) {
+        coords.forEach(element -> checkInside(sourceImage, element));
+        for (Rectangle area : disjointUnion(areas(coords))) {
+            convertToGrayAndWhite(sourceImage.getSubimage(area.x, area.y, area.width, area.height));
+        }
+        return sourceImage;
+    }
+
+    private static List<Rectangle> areas(List<Coordinates> coords) {
+        List<Rectangle> areas = new ArrayList<>(coords.size());
+        for (Coordinates element : coords) {
+            areas.add(new Rectangle(element.getX(), element.getY(), element.getWidth(), element.getHeight()));
+        }
+        return areas;
+    }
+
+    /**
+     * @param rectangles rectangles to cover
+     * @return rectangles not overlapping each other covering exactly the pixels of the given ones
+     */
+    public static List<Rectangle> disjointUnion(List<Rectangle> rectangles) {
+        TreeSet<Integer> edges = new TreeSet<>();
+        for (Rectangle rectangle : rectangles) {
+            if (!rectangle.isEmpty()) {
+                edges.add(rectangle.y);
+                edges.add(rectangle.y + rectangle.height);
+            }
+        }
+        List<Rectangle> union = new ArrayList<>();
+        // rectangles of the previous band by their horizontal span, extended down while the next band has the same span
+        Map<Long, Rectangle> above = new HashMap<>();
+        Integer top = null;
+        for (int bottom : edges) {
+            if (top != null) {
+                Map<Long, Rectangle> band = new HashMap<>();
+                for (int[] span : spans(rectangles, top, bottom)) {
+                    long key = (long) span[0] << 32 | (span[1] & 0xffffffffL);
+                    Rectangle rectangle = above.get(key);
+                    if (rectangle != null) {
+                        rectangle.height = bottom - rectangle.y;
+                    } else {
+                        rectangle = new Rectangle(span[0], top, span[1] - span[0], bottom - top);
+                        union.add(rectangle);
+                    }
+                    band.put(key, rectangle);
+                }
+                above = band;
+            }
+            top = bottom;
+        }
+        return union;
+    }
+
+    /**
+     * @return merged horizontal spans of the rectangles covering the band between two consecutive edges
+     */
+    private static List<int[]> spans(List<Rectangle> rectangles, int top, int bottom) {
+        List<int[]> covering = new ArrayList<>();
+        for (Rectangle rectangle : rectangles) {
+            if (!rectangle.isEmpty() && rectangle.y <= top && rectangle.y + rectangle.height >= bottom) {
+                covering.add(new int[]{rectangle.x, rectangle.x + rectangle.width});
+            }
+        }
+        covering.sort(Comparator.comparingInt(span -> span[0]));
+        List<int[]> spans = new ArrayList<>();
+        for (int[] span : covering) {
+            int[] last = spans.isEmpty() ? null : spans.get(spans.size() - 1);
+            if (last != null && span[0] <= last[1]) {
+                last[1] = Math.max(last[1], span[1]);
+            } else {
+                spans.add(span);
+            }
+        }
+        return spans;
+    }
+
     public static BufferedImage addTitle(BufferedImage sourceImage, String title, Color color, Font textFont) {
         int textOffset = 5;
         BufferedImage combined = new BufferedImage(sourceImage.getWidth(), sourceImage.getHeight() + textFont.getSize(), BufferedImage.TYPE_INT_ARGB);
@@ -110,18 +310,221 @@ public class ImageProcessor {
     }
 
     public static BufferedImage convertToGrayAndWhite(BufferedImage sourceImage) {
-        ColorConvertOp op = new ColorConvertOp(ColorSpace.getInstance(ColorSpace.CS_GRAY), null);
-        op.filter(sourceImage, sourceImage);
-        return sourceImage;
+        return Grayscale.apply(sourceImage, grayscaleMode);
+    }
+
+    /**
+     * Set how images are converted to gray by {@link #convertToGrayAndWhite(BufferedImage)}.
+     *
+     * @param mode {@link Grayscale.Mode#FAST} (default) or {@link Grayscale.Mode#ICC} for the exact color managed conversion
+     */
+    public static void setGrayscaleMode(Grayscale.Mode mode) {
+        grayscaleMode = mode;
+    }
+
+    /**
+     * Set the pool image comparisons are split over when no pool is passed explicitly.
+     *
+     * @param pool pool to use, null to compare on the calling thread (default)
+     */
+    public static void setComparisonPool(ForkJoinPool pool) {
+        comparisonPool = pool;
+    }
+
+    /**
+     * Split image comparisons over a dedicated pool of the given parallelism
+     * when no pool is passed explicitly.
+     * <p>
+     * A dedicated pool replaced by a later call is not shut down, as comparisons started before
+     * may still be running on it; its daemon threads end by themselves once idle.
+     *
+     * @param parallelism number of threads, 1 or less to compare on the calling thread (default)
+     */
+    public static void setComparisonParallelism(int parallelism) {
+        comparisonPool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    /**
+     * @return the pool image comparisons are split over when no pool is passed explicitly, null if none
+     */
+    public static ForkJoinPool getComparisonPool() {
+        return comparisonPool;
     }
 
     public static boolean imagesAreEquals(BufferedImage image1, BufferedImage image2, double deviation) {
+        return imagesAreEquals(image1, image2, deviation, comparisonPool);
+    }
+
+    /**
+     * Compare images splitting the work into horizontal bands over the pool.
+     * Result is the same as for the sequential comparison.
+     *
+     * @param image1    The first image to compare
+     * @param image2    The second image to compare
+     * @param deviation The upper limit of the pixel deviation for the test
+     * @param pool      pool to split the comparison over, sequential if null
+     * @return If the test passes
+     */
+    public static boolean imagesAreEquals(BufferedImage image1, BufferedImage image2, double deviation, ForkJoinPool pool) {
+        ImageData image1Data = new ImageData(image1);
+        ImageData image2Data = new ImageData(image2);
+        if (image1Data.notEqualsDimensions(image2Data)) {
+            throw new UnableToCompareImagesException("Images dimensions mismatch: image1 - " + image1Data.getWidth() + "x" + image1Data.getHeight() + "; image2 - " + image2Data.getWidth() + "x" + image2Data.getHeight());
+        }
+        return image1Data.equalsEachPixels(image2Data, deviation, pool);
+    }
+
+    /**
+     * Compare images stopping as soon as the allowed deviation is exceeded.
+     * Grossly different images return after scanning only a part of the pixels.
+     *
+     * @param image1    The first image to compare
+     * @param image2    The second image to compare
+     * @param deviation The upper limit of the pixel deviation for the test
+     * @return exact deviation if the test passes, otherwise the deviation found until the scan stopped
+     */
+    public static BoundedDeviation compareWithinDeviation(BufferedImage image1, BufferedImage image2, double deviation) {
+        return compareWithinDeviation(image1, image2, deviation, comparisonPool);
+    }
+
+    /**
+     * Same as {@link #compareWithinDeviation(BufferedImage, BufferedImage, double)}
+     * but splitting the work into horizontal bands over the pool.
+     *
+     * @param image1    The first image to compare
+     * @param image2    The second image to compare
+     * @param deviation The upper limit of the pixel deviation for the test
+     * @param pool      pool to split the comparison over, sequential if null
+     * @return exact deviation if the test passes, otherwise the deviation found until the scan stopped
+     */
+    public static BoundedDeviation compareWithinDeviation(BufferedImage image1, BufferedImage image2, double deviation, ForkJoinPool pool) {
+        ImageData image1Data = new ImageData(image1);
+        ImageData image2Data = new ImageData(image2);
+        if (image1Data.notEqualsDimensions(image2Data)) {
+            throw new UnableToCompareImagesException("Images dimensions mismatch: image1 - " + image1Data.getWidth() + "x" + image1Data.getHeight() + "; image2 - " + image2Data.getWidth() + "x" + image2Data.getHeight());
+        }
+        return image1Data.compareWithinDeviation(image2Data, deviation, pool);
+    }
+
+    /**
+     * Compare images stopping as soon as the allowed deviation is exceeded, without logging to the console.
+     *
+     * @param image1    The first image to compare
+     * @param image2    The second image to compare
+     * @param deviation The upper limit of the pixel deviation for the test
+     * @return result of the comparison with its duration
+     */
+    public static ComparisonResult compare(BufferedImage image1, BufferedImage image2, double deviation) {
+        ImageData image1Data = new ImageData(image1);
+        ImageData image2Data = new ImageData(image2);
+        if (image1Data.notEqualsDimensions(image2Data)) {
+            throw new UnableToCompareImagesException("Images dimensions mismatch: image1 - " + image1Data.getWidth() + "x" + image1Data.getHeight() + "; image2 - " + image2Data.getWidth() + "x" + image2Data.getHeight());
+        }
+        return image1Data.compare(image2Data, deviation, comparisonPool);
+    }
+
+    /**
+     * Compare all pixels of the images writing the differences image if the test fails, without logging to the console.
+     *
+     * @param image1       The first image to compare
+     * @param image2       The second image to compare
+     * @param pathFileName The output path filename for the differences image, without extension
+     * @param deviation    The upper limit of the pixel deviation for the test
+     * @return result of the comparison with its duration and the size of the differences image
+     */
+    public static ComparisonResult compareWithDiff(BufferedImage image1, BufferedImage image2, String pathFileName, double deviation) {
         ImageData image1Data = new ImageData(image1);
         ImageData image2Data = new ImageData(image2);
         if (image1Data.notEqualsDimensions(image2Data)) {
             throw new UnableToCompareImagesException("Images dimensions mismatch: image1 - " + image1Data.getWidth() + "x" + image1Data.getHeight() + "; image2 - " + image2Data.getWidth() + "x" + image2Data.getHeight());
         }
-        return image1Data.equalsEachPixels(image2Data, deviation);
+        return image1Data.compareWithCreateDifferencesImage(image2Data, deviation, pathFileName, comparisonPool);
+    }
+
+    /**
+     * Estimate the deviation of the images from a stratified random sample of pixels.
+     * Falls back to the exact comparison when the confidence interval contains the allowed deviation.
+     * Meant for smoke checks of huge captures, changes of a few pixels are likely to go unnoticed.
+     *
+     * @param image1         The first image to compare
+     * @param image2         The second image to compare
+     * @param deviation      The upper limit of the pixel deviation for the test
+     * @param sampleFraction Fraction of the pixels to sample, e.g. 0.01
+     * @return estimated deviation with its 99% confidence interval
+     */
+    public static SampledDeviation estimateDeviation(BufferedImage image1, BufferedImage image2, double deviation, double sampleFraction) {
+        ImageData image1Data = new ImageData(image1);
+        ImageData image2Data = new ImageData(image2);
+        if (image1Data.notEqualsDimensions(image2Data)) {
+            throw new UnableToCompareImagesException("Images dimensions mismatch: image1 - " + image1Data.getWidth() + "x" + image1Data.getHeight() + "; image2 - " + image2Data.getWidth() + "x" + image2Data.getHeight());
+        }
+        return image1Data.estimateDeviation(image2Data, deviation, sampleFraction, SampledDeviation.DEFAULT_SEED, comparisonPool);
+    }
+
+    /**
+     * @param image1         The first image to compare
+     * @param image2         The second image to compare
+     * @param deviation      The upper limit of the pixel deviation for the test
+     * @param sampleFraction Fraction of the pixels to sample, e.g. 0.01
+     * @return If the test passes, judged from the sample
+     */
+    public static boolean imagesAreEqualsSampled(BufferedImage image1, BufferedImage image2, double deviation, double sampleFraction) {
+        return estimateDeviation(image1, image2, deviation, sampleFraction).isEqual();
+    }
+
+    /**
+     * Compare images coarse to fine over pyramids of 1/8, 1/4 and 1/2 size,
+     * reading full size pixels only within the regions that differ at the coarser levels.
+     *
+     * @param image1    The first image to compare
+     * @param image2    The second image to compare
+     * @param deviation The upper limit of the pixel deviation for the test
+     * @return If the test passes
+     */
+    public static boolean imagesAreEqualsPyramid(BufferedImage image1, BufferedImage image2, double deviation) {
+        return compareWithPyramids(image1, image2, null, deviation).isEqual();
+    }
+
+    /**
+     * Same as {@link #imagesAreEqualsPyramid(BufferedImage, BufferedImage, double)}
+     * reusing the pyramid of image2, e.g. of a baseline compared against repeatedly.
+     * The pyramid of image1 is built from its full size pixels on every call.
+     *
+     * @param image1        The first image to compare
+     * @param image2        The second image to compare
+     * @param image2Pyramid Pyramid of the second image, built if null
+     * @param deviation     The upper limit of the pixel deviation for the test
+     * @return deviation if the test passes, otherwise a lower bound of it
+     */
+    public static BoundedDeviation compareWithPyramids(BufferedImage image1, BufferedImage image2, ImagePyramid image2Pyramid, double deviation) {
+        return compareWithPyramids(image1, null, image2, image2Pyramid, deviation);
+    }
+
+    /**
+     * Same as {@link #imagesAreEqualsPyramid(BufferedImage, BufferedImage, double)}
+     * reusing the pyramids of both images, e.g. when every image is compared with several others.
+     *
+     * @param image1        The first image to compare
+     * @param image1Pyramid Pyramid of the first image, built if null
+     * @param image2        The second image to compare
+     * @param image2Pyramid Pyramid of the second image, built if null
+     * @param deviation     The upper limit of the pixel deviation for the test
+     * @return deviation if the test passes, otherwise a lower bound of it
+     */
+    public static BoundedDeviation compareWithPyramids(BufferedImage image1, ImagePyramid image1Pyramid,
+                                                       BufferedImage image2, ImagePyramid image2Pyramid, double deviation) {
+        ImageData image1Data = new ImageData(image1);
+        ImageData image2Data = new ImageData(image2);
+        if (image1Data.notEqualsDimensions(image2Data)) {
+            throw new UnableToCompareImagesException("Images dimensions mismatch: image1 - " + image1Data.getWidth() + "x" + image1Data.getHeight() + "; image2 - " + image2Data.getWidth() + "x" + image2Data.getHeight());
+        }
+        if (image1Pyramid == null) {
+            image1Pyramid = ImagePyramid.of(image1Data.getPixels());
+        }
+        if (image2Pyramid == null) {
+            image2Pyramid = ImagePyramid.of(image2Data.getPixels());
+        }
+        return image1Data.compareWithPyramids(image2Data, image1Pyramid, image2Pyramid, deviation);
     }
 
     /**
@@ -134,18 +537,174 @@ public class ImageProcessor {
      * @return If the test passes
      */
     public static boolean imagesAreEqualsWithDiff(BufferedImage image1, BufferedImage image2, String pathFileName, double deviation) {
+        return imagesAreEqualsWithDiff(image1, image2, pathFileName, deviation, comparisonPool);
+    }
+
+    /**
+     * Same as {@link #imagesAreEqualsWithDiff(BufferedImage, BufferedImage, String, double)}
+     * but splitting the work into horizontal bands over the pool.
+     *
+     * @param image1       The first image to compare
+     * @param image2       The second image to compare
+     * @param pathFileName The output path filename for the third image, if null then is ignored
+     * @param deviation    The upper limit of the pixel deviation for the test
+     * @param pool         pool to split the comparison over, sequential if null
+     * @return If the test passes
+     */
+    public static boolean imagesAreEqualsWithDiff(BufferedImage image1, BufferedImage image2, String pathFileName, double deviation, ForkJoinPool pool) {
+        ImageData image1Data = new ImageData(image1);
+        ImageData image2Data = new ImageData(image2);
+        if (image1Data.notEqualsDimensions(image2Data)) {
+            throw new UnableToCompareImagesException("Images dimensions mismatch: image1 - " + image1Data.getWidth() + "x" + image1Data.getHeight() + "; image2 - " + image2Data.getWidth() + "x" + image2Data.getHeight());
+        }
+        return image1Data.equalsEachPixelsWithCreateDifferencesImage(image2Data, deviation, pathFileName, pool);
+    }
+
+    /**
+     * Same as {@link #imagesAreEqualsWithDiff(BufferedImage, BufferedImage, String, double)}
+     * but comparing pixels only within the tiles whose hashes differ from the tile hashes of image2.
+     *
+     * @param image1       The first image to compare
+     * @param image2       The second image to compare
+     * @param image2Tiles  Tile hashes of the second image, e.g. the index stored alongside a baseline
+     * @param pathFileName The output path filename for the third image
+     * @param deviation    The upper limit of the pixel deviation for the test
+     * @return If the test passes
+     */
+    public static boolean imagesAreEqualsWithDiff(BufferedImage image1, BufferedImage image2, TileHashIndex image2Tiles, String pathFileName, double deviation) {
+        ImageData image1Data = new ImageData(image1);
+        ImageData image2Data = new ImageData(image2);
+        if (image1Data.notEqualsDimensions(image2Data)) {
+            throw new UnableToCompareImagesException("Images dimensions mismatch: image1 - " + image1Data.getWidth() + "x" + image1Data.getHeight() + "; image2 - " + image2Data.getWidth() + "x" + image2Data.getHeight());
+        }
+        TileHashIndex image1Tiles = TileHashIndex.of(image1Data.getPixels(), image2Tiles.getTileSize());
+        return image1Data.equalsChangedTilesWithCreateDifferencesImage(image2Data, image1Tiles, image2Tiles, deviation, pathFileName);
+    }
+
+    /**
+     * Compare images in luminance only, over 8-bit planes a quarter of the size of ARGB rasters.
+     * The deviation is the mean absolute luminance difference relative to 255.
+     *
+     * @param image1    The first image to compare
+     * @param image2    The second image to compare
+     * @param deviation The upper limit of the luminance deviation for the test
+     * @return If the test passes
+     */
+    public static boolean imagesAreEqualsLuma(BufferedImage image1, BufferedImage image2, double deviation) {
+        return lumaPlanesAreEquals(LumaPlane.of(image1), LumaPlane.of(image2), deviation);
+    }
+
+    /**
+     * Same as {@link #imagesAreEqualsLuma(BufferedImage, BufferedImage, double)} for planes computed beforehand,
+     * e.g. kept with a snapshot or a cached baseline.
+     *
+     * @param luma1     Luminance of the first image
+     * @param luma2     Luminance of the second image
+     * @param deviation The upper limit of the luminance deviation for the test
+     * @return If the test passes
+     */
+    public static boolean lumaPlanesAreEquals(LumaPlane luma1, LumaPlane luma2, double deviation) {
+        if (luma1.getWidth() != luma2.getWidth() || luma1.getHeight() != luma2.getHeight()) {
+            throw new UnableToCompareImagesException("Images dimensions mismatch: image1 - " + luma1.getWidth() + "x" + luma1.getHeight() + "; image2 - " + luma2.getWidth() + "x" + luma2.getHeight());
+        }
+        return luma1.compareWithinDeviation(luma2, deviation).isEqual();
+    }
+
+    /**
+     * Structural similarity of the images' luminance over 8x8 windows, with a score map of 64x64 tiles.
+     * Less sensitive to anti-aliasing of fonts than the pixel deviation.
+     *
+     * @param image1 The first image to compare
+     * @param image2 The second image to compare
+     * @return global and per tile similarity, 1 for identical images
+     */
+    public static StructuralSimilarity ssim(BufferedImage image1, BufferedImage image2) {
+        return ssim(image1, image2, StructuralSimilarity.DEFAULT_WINDOW, StructuralSimilarity.DEFAULT_TILE_SIZE);
+    }
+
+    /**
+     * @param image1   The first image to compare
+     * @param image2   The second image to compare
+     * @param window   Width and height of the windows in pixels
+     * @param tileSize Width and height of the tiles of the score map in pixels
+     * @return global and per tile similarity, 1 for identical images
+     */
+    public static StructuralSimilarity ssim(BufferedImage image1, BufferedImage image2, int window, int tileSize) {
+        ImageData image1Data = new ImageData(image1);
+        ImageData image2Data = new ImageData(image2);
+        if (image1Data.notEqualsDimensions(image2Data)) {
+            throw new UnableToCompareImagesException("Images dimensions mismatch: image1 - " + image1Data.getWidth() + "x" + image1Data.getHeight() + "; image2 - " + image2Data.getWidth() + "x" + image2Data.getHeight());
+        }
+        return StructuralSimilarity.of(LumaPlane.of(image1Data.getPixels()), LumaPlane.of(image2Data.getPixels()), window, tileSize);
+    }
+
+    /**
+     * @param image1   The first image to compare
+     * @param image2   The second image to compare
+     * @param minScore The lower limit of the structural similarity for the test, e.g. 0.98
+     * @return If the test passes
+     */
+    public static boolean imagesAreSimilar(BufferedImage image1, BufferedImage image2, double minScore) {
+        return ssim(image1, image2).getScore() >= minScore;
+    }
+
+    /**
+     * Find where images differ as bounding boxes instead of a full size differences image.
+     *
+     * @param image1        The first image to compare
+     * @param image2        The second image to compare
+     * @param mergeDistance Largest gap in pixels between differences reported as one region, 0 to join touching pixels only
+     * @return bounding boxes of the changed regions, top to bottom, empty if images are equal
+     */
+    public static List<Rectangle> findChangedRegions(BufferedImage image1, BufferedImage image2, int mergeDistance) {
         ImageData image1Data = new ImageData(image1);
         ImageData image2Data = new ImageData(image2);
         if (image1Data.notEqualsDimensions(image2Data)) {
             throw new UnableToCompareImagesException("Images dimensions mismatch: image1 - " + image1Data.getWidth() + "x" + image1Data.getHeight() + "; image2 - " + image2Data.getWidth() + "x" + image2Data.getHeight());
         }
-        return image1Data.equalsEachPixelsWithCreateDifferencesImage(image2Data, deviation, pathFileName);
+        return image1Data.changedRegions(image2Data, mergeDistance, comparisonPool);
     }
 
+    /**
+     * Same as {@link #findChangedRegions(BufferedImage, BufferedImage, int)} also saving every region
+     * cropped from both images, as pathPrefix_N_before.png from image2 and pathPrefix_N_after.png from image1.
+     *
+     * @param image1        The first image to compare, e.g. the new screenshot
+     * @param image2        The second image to compare, e.g. the baseline
+     * @param mergeDistance Largest gap in pixels between differences reported as one region
+     * @param pathPrefix    Path and file name prefix of the cropped images
+     * @return bounding boxes of the changed regions, top to bottom, empty if images are equal
+     */
+    public static List<Rectangle> findChangedRegions(BufferedImage image1, BufferedImage image2, int mergeDistance, String pathPrefix) {
+        List<Rectangle> regions = findChangedRegions(image1, image2, mergeDistance);
+        for (int i = 0; i < regions.size(); i++) {
+            Rectangle region = regions.get(i);
+            String name = pathPrefix + "_" + (i + 1);
+            FileUtil.writeImage(image2.getSubimage(region.x, region.y, region.width, region.height), "png", new File(name + "_before.png"));
+            FileUtil.writeImage(image1.getSubimage(region.x, region.y, region.width, region.height), "png", new File(name + "_after.png"));
+        }
+        return regions;
+    }
+
+    /**
+     * @param source image to scale
+     * @param ratio  scale ratio
+     * @return scaled image, taken from the {@link ImagePool} unless the canonical image type is custom.
+     * It must not be given back with {@link ImagePool#release(BufferedImage)} while still in use
+     */
     public static BufferedImage scale(BufferedImage source, double ratio) {
         return cropAndScale(source, ratio, 1.0, 1.0);
     }
 
+    /**
+     * Same as {@link #scale(BufferedImage, double)}, keeping the given fractions of the scaled width and height.
+     *
+     * @param source     image to scale
+     * @param ratio      scale ratio
+     * @param cropWidth  fraction of the scaled width to keep
+     * @param cropHeight fraction of the scaled height to keep
+     * @return view of the pooled scaled image
+     */
     public static BufferedImage cropAndScale(BufferedImage source, double ratio, double cropWidth, double cropHeight) {
         int w = (int) (source.getWidth() * ratio);
         int h = (int) (source.getHeight() * ratio);
@@ -153,6 +712,15 @@ public class ImageProcessor {
         return scaledImage.getSubimage(0, 0, (int) (w * cropWidth), (int) (h * cropHeight));
     }
 
+    /**
+     * Same as {@link #scale(BufferedImage, double)}, keeping at most the given width and height of the scaled image.
+     *
+     * @param source    image to scale
+     * @param ratio     scale ratio
+     * @param maxWidth  largest width to keep, -1 for any
+     * @param maxHeight largest height to keep, -1 for any
+     * @return view of the pooled scaled image
+     */
     public static BufferedImage cropAndScale(BufferedImage source, double ratio, int maxWidth, int maxHeight) {
         int w = (int) (source.getWidth() * ratio);
         int h = (int) (source.getHeight() * ratio);
@@ -177,6 +745,9 @@ public class ImageProcessor {
     }
 
     private static BufferedImage getCompatibleImage(int w, int h, BufferedImage source) {
+        if (canonicalImageType != BufferedImage.TYPE_CUSTOM) {
+            return ImagePool.getInstance().acquire(w, h, canonicalImageType);
+        }
         BufferedImage bImage = null;
         try {
             GraphicsEnvironment ge = GraphicsEnvironment.getLocalGraphicsEnvironment();
@@ -215,10 +786,99 @@ public class ImageProcessor {
         return cm.hasAlpha();
     }
 
+    /**
+     * Set the layout captured and decoded images are converted to once when they come in,
+     * so that later drawing, comparison and encoding work on a single fast layout.
+     *
+     * @param imageType TYPE_INT_RGB (default, drops the alpha of captures), TYPE_INT_ARGB, TYPE_3BYTE_BGR,
+     *                  TYPE_4BYTE_ABGR, or TYPE_CUSTOM to keep images in the layout they were decoded to
+     */
+    public static void setCanonicalImageType(int imageType) {
+        switch (imageType) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+            case BufferedImage.TYPE_CUSTOM:
+                canonicalImageType = imageType;
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported canonical image type: " + imageType);
+        }
+    }
+
+    public static int getCanonicalImageType() {
+        return canonicalImageType;
+    }
+
+    /**
+     * Convert a captured or decoded image to the canonical layout, see {@link #setCanonicalImageType(int)}.
+     * Colors are copied as they are, alpha is dropped if the canonical layout has none.
+     *
+     * @param image image to convert
+     * @return the image itself if already in the canonical layout, otherwise a converted copy
+     */
+    public static BufferedImage toCanonical(BufferedImage image) {
+        int type = canonicalImageType;
+        if (image == null || type == BufferedImage.TYPE_CUSTOM || image.getType() == type) {
+            return image;
+        }
+        BufferedImage canonical = ImagePool.getInstance().acquireUncleared(image.getWidth(), image.getHeight(), type);
+        Graphics2D g = canonical.createGraphics();
+        g.setComposite(AlphaComposite.Src);
+        g.drawImage(image, 0, 0, null);
+        g.dispose();
+        return canonical;
+    }
+
+    /**
+     * @param width  width of the image
+     * @param height height of the image
+     * @return blank image from the {@link ImagePool} in the canonical layout, TYPE_INT_ARGB if images are kept as decoded
+     */
+    public static BufferedImage createCanonicalImage(int width, int height) {
+        int type = canonicalImageType;
+        return ImagePool.getInstance().acquire(width, height, type == BufferedImage.TYPE_CUSTOM ? BufferedImage.TYPE_INT_ARGB : type);
+    }
+
+    /**
+     * Decode an image into pooled images and convert it to the canonical layout,
+     * giving the decoded image back to the {@link ImagePool} if it had to be converted.
+     *
+     * @param input file or stream to decode
+     * @return decoded image, null if no registered reader can decode the input
+     * @throws IOException if unable to read the image
+     */
+    public static BufferedImage readCanonical(Object input) throws IOException {
+        BufferedImage decoded = ImagePool.getInstance().read(input);
+        BufferedImage canonical;
+        try {
+            canonical = toCanonical(decoded);
+        } catch (RuntimeException e) {
+            ImagePool.getInstance().release(decoded);
+            throw e;
+        }
+        if (canonical != decoded) {
+            ImagePool.getInstance().release(decoded);
+        }
+        return canonical;
+    }
+
+    /**
+     * Same as {@link #readCanonical(Object)} for encoded image bytes, decoded from memory
+     * without the file cache ImageIO would otherwise use for streams.
+     *
+     * @param imageData encoded image
+     * @return decoded image, null if no registered reader can decode the data
+     * @throws IOException if unable to read the image
+     */
+    public static BufferedImage readCanonical(byte[] imageData) throws IOException {
+        return readCanonical(new MemoryCacheImageInputStream(new ByteArrayInputStream(imageData)));
+    }
+
     public static BufferedImage createImageFromBytes(byte[] imageData) {
-        ByteArrayInputStream bais = new ByteArrayInputStream(imageData);
         try {
-            return ImageIO.read(bais);
+            return readCanonical(imageData);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -0,0 +1,197 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.image;
+
+import com.assertthat.selenium_shutterbug.utils.image.model.PerceptualHash;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Index of perceptual hashes of baseline images, answering which baselines
+ * a capture resembles by Hamming distance without decoding the baselines.
+ * <p>
+ * The index can be saved to and loaded from a text file with one
+ * "hash path" line per baseline.
+ */
+public class PerceptualHashIndex {
+
+    private final Map<String, Integer> positions = new HashMap<>();
+    private final List<String> paths = new ArrayList<>();
+    private long[] hashes = new long[16];
+
+    /**
+     * Load an index previously stored with {@link #save(File)}.
+     *
+     * @param file index file
+     * @return loaded index
+     * @throws IOException if unable to read the file
+     */
+    public static PerceptualHashIndex load(File file) throws IOException {
+        PerceptualHashIndex index = new PerceptualHashIndex();
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf(' ');
+                if (separator > 0) {
+                    index.put(line.substring(separator + 1), Long.parseUnsignedLong(line.substring(0, separator), 16));
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @param file index file to write
+     * @throws IOException if unable to write the file
+     */
+    public synchronized void save(File file) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8)) {
+            for (int i = 0; i < paths.size(); i++) {
+                writer.write(Long.toHexString(hashes[i]));
+                writer.write(' ');
+                writer.write(paths.get(i));
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Decode and hash a baseline image, replacing its previous hash if any.
+     *
+     * @param baseline image file
+     * @throws IOException if unable to read image from file
+     */
+    public void add(File baseline) throws IOException {
+        BufferedImage image = ImageIO.read(baseline);
+        if (image == null) {
+            throw new IOException("Unable to decode image " + baseline);
+        }
+        put(baseline.getPath(), PerceptualHash.dHash(image));
+    }
+
+    /**
+     * Hash all PNG images of a folder.
+     *
+     * @param folder folder with baseline images
+     * @throws IOException if unable to read an image
+     */
+    public void addAll(File folder) throws IOException {
+        File[] files = folder.listFiles((dir, name) -> name.toLowerCase().endsWith(".png"));
+        if (files == null) {
+            throw new IOException("Unable to list folder " + folder);
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            add(file);
+        }
+    }
+
+    public synchronized void put(String path, long hash) {
+        Integer position = positions.get(path);
+        if (position != null) {
+            hashes[position] = hash;
+            return;
+        }
+        if (paths.size() == hashes.length) {
+            hashes = Arrays.copyOf(hashes, hashes.length * 2);
+        }
+        hashes[paths.size()] = hash;
+        positions.put(path, paths.size());
+        paths.add(path);
+    }
+
+    /**
+     * @param path baseline path
+     * @return hash of the baseline, null if not indexed
+     */
+    public synchronized Long get(String path) {
+        Integer position = positions.get(path);
+        return position == null ? null : hashes[position];
+    }
+
+    public synchronized int size() {
+        return paths.size();
+    }
+
+    /**
+     * @param image       capture to look up
+     * @param maxDistance largest Hamming distance to report
+     * @return baselines within the distance, most similar first
+     */
+    public List<Match> findSimilar(BufferedImage image, int maxDistance) {
+        return findSimilar(PerceptualHash.dHash(image), maxDistance);
+    }
+
+    /**
+     * @param hash        perceptual hash to look up
+     * @param maxDistance largest Hamming distance to report
+     * @return baselines within the distance, most similar first
+     */
+    public synchronized List<Match> findSimilar(long hash, int maxDistance) {
+        List<Match> matches = new ArrayList<>();
+        for (int i = 0; i < paths.size(); i++) {
+            int distance = PerceptualHash.distance(hash, hashes[i]);
+            if (distance <= maxDistance) {
+                matches.add(new Match(paths.get(i), distance));
+            }
+        }
+        matches.sort(Comparator.comparingInt(Match::getDistance));
+        return matches;
+    }
+
+    /**
+     * @param image capture to look up
+     * @return the most similar baseline, null if the index is empty
+     */
+    public Match findMostSimilar(BufferedImage image) {
+        List<Match> matches = findSimilar(PerceptualHash.dHash(image), PerceptualHash.BITS);
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
+    public synchronized List<String> getPaths() {
+        return Collections.unmodifiableList(new ArrayList<>(paths));
+    }
+
+    public static final class Match {
+        private final String path;
+        private final int distance;
+
+        Match(String path, int distance) {
+            this.path = path;
+            this.distance = distance;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return Hamming distance between the hashes
+         */
+        public int getDistance() {
+            return distance;
+        }
+
+        @Override
+        public String toString() {
+            return path + " (" + distance + ")";
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.image.model;
+
+/**
+ * Outcome of a comparison bounded by the allowed deviation.
+ * Once the allowed deviation is exceeded the scan stops,
+ * so the reported deviation is then only a lower bound of the actual one.
+ */
+public final class BoundedDeviation {
+
+    private final double deviation;
+    private final double allowedDeviation;
+    private final boolean stoppedEarly;
+
+    public BoundedDeviation(double deviation, double allowedDeviation, boolean stoppedEarly) {
+        this.deviation = deviation;
+        this.allowedDeviation = allowedDeviation;
+        this.stoppedEarly = stoppedEarly;
+    }
+
+    /**
+     * @return exact deviation if the scan completed, a lower bound of it if it {@link #isStoppedEarly()}
+     */
+    public double getDeviation() {
+        return deviation;
+    }
+
+    public double getAllowedDeviation() {
+        return allowedDeviation;
+    }
+
+    /**
+     * @return true if the scan stopped as soon as the allowed deviation was exceeded
+     */
+    public boolean isStoppedEarly() {
+        return stoppedEarly;
+    }
+
+    /**
+     * @return true if deviation is within the allowed one
+     */
+    public boolean isEqual() {
+        return !stoppedEarly;
+    }
+
+    @Override
+    public String toString() {
+        return (stoppedEarly ? "Deviation above " : "Deviation ") + deviation + " (allowed " + allowedDeviation + ")";
+    }
+}
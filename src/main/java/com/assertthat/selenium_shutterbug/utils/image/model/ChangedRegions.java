@@ -0,0 +1,137 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.image.model;
+
+import java.awt.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Bounding boxes of the connected groups of differing pixels of a {@link DifferenceMask}.
+ * <p>
+ * The mask is read in a single pass row by row, runs of differing pixels join the open regions
+ * they touch. Regions are closed once they can no longer grow, so only the regions
+ * crossing the current row are kept. Differences separated by no more than
+ * the merge distance belong to the same region.
+ */
+public final class ChangedRegions {
+
+    private ChangedRegions() {
+    }
+
+    /**
+     * @param mask          differing pixels
+     * @param mergeDistance largest gap in pixels between differences of one region, 0 to join touching pixels only
+     * @return bounding boxes of the changed regions, top to bottom
+     */
+    public static List<Rectangle> of(DifferenceMask mask, int mergeDistance) {
+        int distance = Math.max(mergeDistance, 0);
+        List<Region> open = new ArrayList<>();
+        List<Region> closed = new ArrayList<>();
+        for (int y = 0; y < mask.getHeight(); y++) {
+            if (!mask.isMarked(y)) {
+                continue;
+            }
+            close(open, closed, y, distance);
+            int start = mask.nextMarked(0, y);
+            while (start >= 0) {
+                int end = mask.nextUnmarked(start, y) - 1;
+                addRun(open, start, end, y, distance);
+                start = mask.nextMarked(end + 1, y);
+            }
+        }
+        closed.addAll(open);
+        mergeOverlapping(closed, distance);
+        List<Rectangle> rectangles = new ArrayList<>(closed.size());
+        for (Region region : closed) {
+            rectangles.add(new Rectangle(region.minX, region.minY, region.maxX - region.minX + 1, region.maxY - region.minY + 1));
+        }
+        rectangles.sort(Comparator.<Rectangle>comparingInt(r -> r.y).thenComparingInt(r -> r.x));
+        return rectangles;
+    }
+
+    private static void close(List<Region> open, List<Region> closed, int y, int distance) {
+        Iterator<Region> regions = open.iterator();
+        while (regions.hasNext()) {
+            Region region = regions.next();
+            if (y - region.maxY - 1 > distance) {
+                closed.add(region);
+                regions.remove();
+            }
+        }
+    }
+
+    private static void addRun(List<Region> open, int start, int end, int y, int distance) {
+        Region target = null;
+        Iterator<Region> regions = open.iterator();
+        while (regions.hasNext()) {
+            Region region = regions.next();
+            if (start - region.maxX - 1 > distance || region.minX - end - 1 > distance) {
+                continue;
+            }
+            if (target == null) {
+                target = region;
+            } else {
+                target.add(region);
+                regions.remove();
+            }
+        }
+        if (target == null) {
+            open.add(new Region(start, end, y));
+        } else {
+            target.add(start, end, y);
+        }
+    }
+
+    private static void mergeOverlapping(List<Region> regions, int distance) {
+        boolean merged = true;
+        while (merged) {
+            merged = false;
+            for (int i = 0; i < regions.size(); i++) {
+                for (int j = regions.size() - 1; j > i; j--) {
+                    if (regions.get(i).isNear(regions.get(j), distance)) {
+                        regions.get(i).add(regions.remove(j));
+                        merged = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class Region {
+        private int minX;
+        private int maxX;
+        private int minY;
+        private int maxY;
+
+        Region(int minX, int maxX, int y) {
+            this.minX = minX;
+            this.maxX = maxX;
+            this.minY = y;
+            this.maxY = y;
+        }
+
+        void add(int fromX, int toX, int y) {
+            minX = Math.min(minX, fromX);
+            maxX = Math.max(maxX, toX);
+            maxY = Math.max(maxY, y);
+        }
+
+        void add(Region other) {
+            minX = Math.min(minX, other.minX);
+            maxX = Math.max(maxX, other.maxX);
+            minY = Math.min(minY, other.minY);
+            maxY = Math.max(maxY, other.maxY);
+        }
+
+        boolean isNear(Region other, int distance) {
+            return other.minX - maxX - 1 <= distance && minX - other.maxX - 1 <= distance
+                    && other.minY - maxY - 1 <= distance && minY - other.maxY - 1 <= distance;
+        }
+    }
+}
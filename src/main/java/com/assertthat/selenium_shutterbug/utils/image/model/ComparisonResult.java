@@ -0,0 +1,109 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.image.model;
+
+/**
+ * Outcome of an image comparison together with the time spent on each of its steps,
+ * for reporting instead of logging.
+ */
+public final class ComparisonResult {
+
+    private final boolean equal;
+    private final double deviation;
+    private final double allowedDeviation;
+    private final long differingPixels;
+    private final boolean stoppedEarly;
+    private final long decodeNanos;
+    private final long compareNanos;
+    private final long diffWriteNanos;
+    private final long bytesWritten;
+
+    public ComparisonResult(boolean equal, double deviation, double allowedDeviation, long differingPixels, boolean stoppedEarly,
+                            long decodeNanos, long compareNanos, long diffWriteNanos, long bytesWritten) {
+        this.equal = equal;
+        this.deviation = deviation;
+        this.allowedDeviation = allowedDeviation;
+        this.differingPixels = differingPixels;
+        this.stoppedEarly = stoppedEarly;
+        this.decodeNanos = decodeNanos;
+        this.compareNanos = compareNanos;
+        this.diffWriteNanos = diffWriteNanos;
+        this.bytesWritten = bytesWritten;
+    }
+
+    /**
+     * @param decodeNanos time spent reading and decoding the images
+     * @return copy of this result with the decode time set
+     */
+    public ComparisonResult withDecodeNanos(long decodeNanos) {
+        return new ComparisonResult(equal, deviation, allowedDeviation, differingPixels, stoppedEarly,
+                decodeNanos, compareNanos, diffWriteNanos, bytesWritten);
+    }
+
+    /**
+     * @return true if deviation is within the allowed one
+     */
+    public boolean isEqual() {
+        return equal;
+    }
+
+    /**
+     * @return exact deviation, or a lower bound of it if the comparison {@link #isStoppedEarly()}
+     */
+    public double getDeviation() {
+        return deviation;
+    }
+
+    public double getAllowedDeviation() {
+        return allowedDeviation;
+    }
+
+    /**
+     * @return number of differing pixels, counted within the scanned rows only if the comparison {@link #isStoppedEarly()}
+     */
+    public long getDifferingPixels() {
+        return differingPixels;
+    }
+
+    /**
+     * @return true if the scan stopped as soon as the allowed deviation was exceeded
+     */
+    public boolean isStoppedEarly() {
+        return stoppedEarly;
+    }
+
+    public long getDecodeNanos() {
+        return decodeNanos;
+    }
+
+    public long getCompareNanos() {
+        return compareNanos;
+    }
+
+    public long getDiffWriteNanos() {
+        return diffWriteNanos;
+    }
+
+    /**
+     * @return size of the differences image written, 0 if none
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    @Override
+    public String toString() {
+        return "ComparisonResult{equal=" + equal
+                + ", deviation=" + deviation
+                + ", allowedDeviation=" + allowedDeviation
+                + ", differingPixels=" + differingPixels
+                + ", stoppedEarly=" + stoppedEarly
+                + ", decodeNanos=" + decodeNanos
+                + ", compareNanos=" + compareNanos
+                + ", diffWriteNanos=" + diffWriteNanos
+                + ", bytesWritten=" + bytesWritten + "}";
+    }
+}
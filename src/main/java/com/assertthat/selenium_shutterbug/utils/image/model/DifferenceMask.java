@@ -0,0 +1,122 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.image.model;
+
+/**
+ * One bit per pixel telling where two images differ, recorded while comparing them.
+ * Bits of a row are only allocated once the row has a difference,
+ * so identical images cost nothing and a full mask is 1/32 of an ARGB raster.
+ * <p>
+ * A row must only be marked by one thread at a time.
+ */
+public final class DifferenceMask {
+
+    private final int width;
+    private final int height;
+    private final long[][] rows;
+
+    public DifferenceMask(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.rows = new long[height][];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    void mark(int x, int y) {
+        long[] row = rows[y];
+        if (row == null) {
+            row = new long[(width + 63) >>> 6];
+            rows[y] = row;
+        }
+        row[x >>> 6] |= 1L << x;
+    }
+
+    /**
+     * @param y row
+     * @return true if any pixel of the row differs
+     */
+    public boolean isMarked(int y) {
+        return rows[y] != null;
+    }
+
+    /**
+     * @param x column
+     * @param y row
+     * @return true if the pixel differs
+     */
+    public boolean isMarked(int x, int y) {
+        long[] row = rows[y];
+        return row != null && (row[x >>> 6] & 1L << x) != 0;
+    }
+
+    /**
+     * @return number of differing pixels
+     */
+    public long countMarked() {
+        long count = 0;
+        for (long[] row : rows) {
+            if (row != null) {
+                for (long bits : row) {
+                    count += Long.bitCount(bits);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @param fromX column to start searching at
+     * @param y     row
+     * @return first differing column at or after <b>fromX</b>, or -1 if none
+     */
+    public int nextMarked(int fromX, int y) {
+        long[] row = rows[y];
+        if (row == null || fromX >= width) {
+            return -1;
+        }
+        int word = fromX >>> 6;
+        long bits = row[word] & (-1L << fromX);
+        while (true) {
+            if (bits != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            if (++word == row.length) {
+                return -1;
+            }
+            bits = row[word];
+        }
+    }
+
+    /**
+     * @param fromX column to start searching at
+     * @param y     row
+     * @return first column at or after <b>fromX</b> that does not differ, or the width if none
+     */
+    public int nextUnmarked(int fromX, int y) {
+        long[] row = rows[y];
+        if (row == null || fromX >= width) {
+            return Math.min(fromX, width);
+        }
+        int word = fromX >>> 6;
+        long bits = ~row[word] & (-1L << fromX);
+        while (true) {
+            if (bits != 0) {
+                return Math.min((word << 6) + Long.numberOfTrailingZeros(bits), width);
+            }
+            if (++word == row.length) {
+                return width;
+            }
+            bits = ~row[word];
+        }
+    }
+}
@@ -0,0 +1,192 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.image.model;
+
+import java.awt.Image;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Vector;
+
+/**
+ * RGB differences image rendered band by band on demand:
+ * pixels of the base image, masked with the mark colour wherever the {@link DifferenceMask} is set.
+ * <p>
+ * Image writers pull rows through {@link #getData(Rectangle)}, so only one band
+ * is ever held in memory instead of a full size output raster.
+ */
+public final class DifferencesImage implements RenderedImage {
+
+    private static final int BAND_HEIGHT = 64;
+    private static final int[] MASKS = {0xff0000, 0xff00, 0xff};
+    private static final ColorModel COLOR_MODEL = new DirectColorModel(24, MASKS[0], MASKS[1], MASKS[2]);
+
+    private final PixelData base;
+    private final DifferenceMask mask;
+    private final int mark;
+    private final int width;
+    private final int height;
+    private Raster band;
+
+    /**
+     * @param base pixels the differences image is made of
+     * @param mask where pixels differ
+     * @param mark mask applied to differing pixels
+     */
+    public DifferencesImage(PixelData base, DifferenceMask mask, int mark) {
+        this.base = base;
+        this.mask = mask;
+        this.mark = mark;
+        this.width = base.getWidth();
+        this.height = base.getHeight();
+    }
+
+    private synchronized Raster band(int tileY) {
+        int fromY = tileY * BAND_HEIGHT;
+        if (band != null && band.getMinY() == fromY) {
+            return band;
+        }
+        int rows = Math.min(BAND_HEIGHT, height - fromY);
+        int[] data = new int[width * rows];
+        for (int r = 0; r < rows; r++) {
+            int y = fromY + r;
+            int offset = r * width;
+            base.readRow(0, y, width, data, offset);
+            for (int x = mask.nextMarked(0, y); x >= 0; x = mask.nextMarked(x + 1, y)) {
+                data[offset + x] &= mark;
+            }
+        }
+        band = Raster.createPackedRaster(new DataBufferInt(data, data.length), width, rows, width, MASKS, new Point(0, fromY));
+        return band;
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return COLOR_MODEL;
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+        return new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT, width, Math.min(BAND_HEIGHT, height), MASKS);
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    @Override
+    public int getNumXTiles() {
+        return 1;
+    }
+
+    @Override
+    public int getNumYTiles() {
+        return (height + BAND_HEIGHT - 1) / BAND_HEIGHT;
+    }
+
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    @Override
+    public int getTileWidth() {
+        return width;
+    }
+
+    @Override
+    public int getTileHeight() {
+        return BAND_HEIGHT;
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        return band(tileY);
+    }
+
+    @Override
+    public Raster getData() {
+        return getData(new Rectangle(0, 0, width, height));
+    }
+
+    @Override
+    public Raster getData(Rectangle rect) {
+        int tileY = rect.y / BAND_HEIGHT;
+        if (rect.y >= 0 && rect.y + rect.height <= Math.min((tileY + 1) * BAND_HEIGHT, height)) {
+            return band(tileY).createChild(rect.x, rect.y, rect.width, rect.height, rect.x, rect.y, null);
+        }
+        WritableRaster raster = COLOR_MODEL.createCompatibleWritableRaster(rect.width, rect.height)
+                .createWritableTranslatedChild(rect.x, rect.y);
+        return copyData(raster);
+    }
+
+    @Override
+    public WritableRaster copyData(WritableRaster raster) {
+        if (raster == null) {
+            raster = COLOR_MODEL.createCompatibleWritableRaster(width, height);
+        }
+        int fromTile = Math.max(raster.getMinY(), 0) / BAND_HEIGHT;
+        int toY = Math.min(raster.getMinY() + raster.getHeight(), height);
+        for (int tileY = fromTile; tileY * BAND_HEIGHT < toY; tileY++) {
+            raster.setRect(band(tileY));
+        }
+        return raster;
+    }
+}
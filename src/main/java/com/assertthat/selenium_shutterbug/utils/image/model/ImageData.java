@@ -1,12 +1,14 @@
 package com.assertthat.selenium_shutterbug.utils.image.model;
 
 import com.assertthat.selenium_shutterbug.utils.file.FileUtil;
+import lombok.AccessLevel;
 import lombok.Getter;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
-import java.text.DecimalFormat;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 @Getter
 public class ImageData {
@@ -14,6 +16,8 @@ public class ImageData {
     private final BufferedImage image;
     private final int width;
     private final int height;
+    @Getter(AccessLevel.NONE)
+    private PixelData pixels;
 
     public ImageData(BufferedImage image) {
         this.image = image;
@@ -30,70 +34,217 @@ public class ImageData {
     }
 
     public boolean equalsEachPixelsWithCreateDifferencesImage(ImageData imageData, double deviation, String pathDifferenceImageFileName) {
-        return equalsEachPixelsWithCreateDifferencesImage(imageData.getImage(), deviation, pathDifferenceImageFileName);
+        return equalsEachPixelsWithCreateDifferencesImage(imageData, deviation, pathDifferenceImageFileName, null);
     }
 
-    private boolean equalsEachPixelsWithCreateDifferencesImage(BufferedImage image, double deviation, String pathDifferenceImageFileName) {
-        boolean isEqual = equalsEachPixels(image, deviation);
+    /**
+     * @param imageData                   image to compare with
+     * @param deviation                   allowed deviation
+     * @param pathDifferenceImageFileName path of the differences image, without extension
+     * @param pool                        pool to split the comparison over, sequential if null
+     * @return true if deviation between images is within allowed one
+     */
+    public boolean equalsEachPixelsWithCreateDifferencesImage(ImageData imageData, double deviation, String pathDifferenceImageFileName, ForkJoinPool pool) {
+        // Differences are recorded during the comparison pass, the image is only rendered when needed
+        DifferenceMask mask = new DifferenceMask(width, height);
+        boolean isEqual = withinDeviation(calculatePixelsDifference(imageData, pool, mask), deviation);
         if(!isEqual) {
-            createDifferencesImage(image, pathDifferenceImageFileName);
+            createDifferencesImage(mask, pathDifferenceImageFileName);
         }
         return isEqual;
     }
 
-    private void createDifferencesImage(BufferedImage image, String pathDifferenceImageFileName) {
-        BufferedImage output = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    /**
+     * Same as {@link #equalsEachPixelsWithCreateDifferencesImage(ImageData, double, String)} but comparing
+     * pixels only within the tiles whose hashes differ, all other tiles are taken as identical.
+     *
+     * @param imageData                   image to compare with
+     * @param tiles                       tile hashes of this image
+     * @param imageDataTiles              tile hashes of the image to compare with
+     * @param deviation                   allowed deviation
+     * @param pathDifferenceImageFileName path of the differences image, without extension
+     * @return true if deviation between images is within allowed one
+     */
+    public boolean equalsChangedTilesWithCreateDifferencesImage(ImageData imageData, TileHashIndex tiles, TileHashIndex imageDataTiles,
+                                                                double deviation, String pathDifferenceImageFileName) {
+        DifferenceMask mask = new DifferenceMask(width, height);
+        long diff = tiles.channelDifference(imageDataTiles, comparator(imageData), mask);
+        boolean isEqual = withinDeviation(deviation(diff), deviation);
+        if(!isEqual) {
+            createDifferencesImage(mask, pathDifferenceImageFileName);
+        }
+        return isEqual;
+    }
 
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int rgb1 = this.getImage().getRGB(x, y);
-                int rgb2 = image.getRGB(x, y);
+    private void createDifferencesImage(DifferenceMask mask, String pathDifferenceImageFileName) {
+        // Differing pixels keep only the red channel of image 1, the rest is image 1's original pixel.
+        // Rendered band by band while the PNG is being written
+        FileUtil.writeImage(new DifferencesImage(getPixels(), mask, RED_RGB), "png", new File(pathDifferenceImageFileName + ".png"));
+    }
 
-                // If difference > recorded difference, change pixel to red. If zero, set to image 1's original pixel
-                if (rgb1 != rgb2)
-                    output.setRGB(x, y, RED_RGB & rgb1); // Dark red = original position, Light red is moved to
-                else
-                    output.setRGB(x, y, rgb1);
-            }
-        }
-        FileUtil.writeImage(output, "png", new File(pathDifferenceImageFileName + ".png"));
+    /**
+     * @param imageData     image to compare with
+     * @param mergeDistance largest gap in pixels between differences of one region
+     * @param pool          pool to split the comparison over, sequential if null
+     * @return bounding boxes of the regions where the images differ
+     */
+    public List<Rectangle> changedRegions(ImageData imageData, int mergeDistance, ForkJoinPool pool) {
+        DifferenceMask mask = new DifferenceMask(width, height);
+        comparator(imageData).channelDifference(pool, mask);
+        return ChangedRegions.of(mask, mergeDistance);
     }
 
     public boolean equalsEachPixels(ImageData imageData, double deviation) {
-        return equalsEachPixels(imageData.getImage(), deviation);
+        return equalsEachPixels(imageData, deviation, null);
+    }
+
+    /**
+     * @param imageData image to compare with
+     * @param deviation allowed deviation
+     * @param pool      pool to split the comparison over, sequential if null
+     * @return true if deviation between images is within allowed one
+     */
+    public boolean equalsEachPixels(ImageData imageData, double deviation, ForkJoinPool pool) {
+        return withinDeviation(calculatePixelsDifference(imageData, pool, null), deviation);
+    }
+
+    /**
+     * Compare pixels scanning only until the allowed deviation is exceeded, without logging.
+     *
+     * @param imageData image to compare with
+     * @param deviation allowed deviation
+     * @param pool      pool to split the comparison over, sequential if null
+     * @return result of the comparison with its duration
+     */
+    public ComparisonResult compare(ImageData imageData, double deviation, ForkJoinPool pool) {
+        long start = System.nanoTime();
+        DifferenceMask mask = new DifferenceMask(width, height);
+        double n = width * height * 3;
+        long budget = differenceBudget(deviation, n);
+        long diff = comparator(imageData).channelDifference(budget, pool, mask);
+        long compareNanos = System.nanoTime() - start;
+        return new ComparisonResult(diff <= budget, diff / n / 255.0, deviation, mask.countMarked(), diff > budget,
+                0, compareNanos, 0, 0);
+    }
+
+    /**
+     * Compare all pixels writing the differences image if the deviation exceeds the allowed one, without logging.
+     *
+     * @param imageData                   image to compare with
+     * @param deviation                   allowed deviation
+     * @param pathDifferenceImageFileName path of the differences image, without extension
+     * @param pool                        pool to split the comparison over, sequential if null
+     * @return result of the comparison with its duration and the size of the differences image
+     */
+    public ComparisonResult compareWithCreateDifferencesImage(ImageData imageData, double deviation, String pathDifferenceImageFileName, ForkJoinPool pool) {
+        long start = System.nanoTime();
+        DifferenceMask mask = new DifferenceMask(width, height);
+        double p = calculatePixelsDifference(imageData, pool, mask);
+        long compareNanos = System.nanoTime() - start;
+        boolean isEqual = withinDeviation(p, deviation);
+        long diffWriteNanos = 0;
+        long bytesWritten = 0;
+        if (!isEqual) {
+            start = System.nanoTime();
+            createDifferencesImage(mask, pathDifferenceImageFileName);
+            diffWriteNanos = System.nanoTime() - start;
+            bytesWritten = new File(pathDifferenceImageFileName + ".png").length();
+        }
+        return new ComparisonResult(isEqual, p, deviation, mask.countMarked(), false,
+                0, compareNanos, diffWriteNanos, bytesWritten);
+    }
+
+    private static boolean withinDeviation(double p, double deviation) {
+        return p == 0 || p <= deviation;
+    }
+
+    /**
+     * Compare pixels scanning only until the allowed deviation is exceeded.
+     *
+     * @param imageData image to compare with
+     * @param deviation allowed deviation
+     * @param pool      pool to split the comparison over, sequential if null
+     * @return exact deviation if within the allowed one, otherwise a lower bound of it
+     */
+    public BoundedDeviation compareWithinDeviation(ImageData imageData, double deviation, ForkJoinPool pool) {
+        double n = width * height * 3;
+        long budget = differenceBudget(deviation, n);
+        long diff = comparator(imageData).channelDifference(budget, pool);
+        return new BoundedDeviation(diff / n / 255.0, deviation, diff > budget);
     }
 
-    private boolean equalsEachPixels(BufferedImage image, double deviation) {
-        double p = calculatePixelsDifference(image);
-        boolean areEqual =  p == 0 || p <= deviation;
-        if(!areEqual){
-            DecimalFormat df = new DecimalFormat("#");
-            df.setMaximumFractionDigits(8);
-            System.out.println("[INFO] Allowed deviation: " + df.format(deviation));
-            System.out.println("[INFO] Actual deviation: " + df.format(p));
+    /**
+     * Estimate the deviation from a stratified random sample of pixels,
+     * comparing exactly only when the sample can not decide.
+     *
+     * @param imageData      image to compare with
+     * @param deviation      allowed deviation
+     * @param sampleFraction fraction of pixels to sample, e.g. 0.01
+     * @param seed           seed of the random sample
+     * @param pool           pool to split the exact comparison over, sequential if null
+     * @return estimated deviation with its confidence interval
+     */
+    public SampledDeviation estimateDeviation(ImageData imageData, double deviation, double sampleFraction, long seed, ForkJoinPool pool) {
+        return SampledDeviation.estimate(comparator(imageData), deviation, sampleFraction, seed,
+                allowed -> compareWithinDeviation(imageData, allowed, pool));
+    }
+
+    /**
+     * Compare pixels coarse to fine, reading full size pixels only where the pyramids differ.
+     *
+     * @param imageData        image to compare with
+     * @param pyramid          pyramid of this image
+     * @param imageDataPyramid pyramid of the image to compare with
+     * @param deviation        allowed deviation
+     * @return deviation if within the allowed one, otherwise a lower bound of it
+     */
+    public BoundedDeviation compareWithPyramids(ImageData imageData, ImagePyramid pyramid, ImagePyramid imageDataPyramid, double deviation) {
+        double n = width * height * 3;
+        long budget = differenceBudget(deviation, n);
+        long diff = pyramid.channelDifference(imageDataPyramid, comparator(imageData), budget, null);
+        return new BoundedDeviation(diff / n / 255.0, deviation, diff > budget);
+    }
+
+    /**
+     * @return largest sum of channel differences still considered equal for the deviation,
+     * the same decision {@link #equalsEachPixels(ImageData, double)} makes
+     */
+    static long differenceBudget(double deviation, double n) {
+        double max = n * 255.0;
+        if (deviation >= 1) {
+            return (long) max;
         }
-        return areEqual;
-    }
-
-    private double calculatePixelsDifference(BufferedImage image) {
-        long diff = 0;
-        for (int y = 0; y < height; y++) {
-            for (int x = 0; x < width; x++) {
-                int rgb1 = this.getImage().getRGB(x, y);
-                int rgb2 = image.getRGB(x, y);
-                int r1 = (rgb1 >> 16) & 0xff;
-                int g1 = (rgb1 >> 8) & 0xff;
-                int b1 = (rgb1) & 0xff;
-                int r2 = (rgb2 >> 16) & 0xff;
-                int g2 = (rgb2 >> 8) & 0xff;
-                int b2 = (rgb2) & 0xff;
-                diff += Math.abs(r1 - r2);
-                diff += Math.abs(g1 - g2);
-                diff += Math.abs(b1 - b2);
-            }
+        long budget = Math.max((long) Math.floor(deviation * max), 0);
+        while (budget > 0 && budget / n / 255.0 > deviation) {
+            budget--;
         }
+        while (budget < max && (budget + 1) / n / 255.0 <= deviation) {
+            budget++;
+        }
+        return budget;
+    }
+
+    private double calculatePixelsDifference(ImageData imageData, ForkJoinPool pool, DifferenceMask mask) {
+        return deviation(comparator(imageData).channelDifference(pool, mask));
+    }
+
+    private double deviation(long diff) {
         double n = width * height * 3;
 
         return diff / n / 255.0;
     }
+
+    private PixelComparator comparator(ImageData imageData) {
+        return new PixelComparator(getPixels(), imageData.getPixels());
+    }
+
+    /**
+     * @return pixels of the image normalized for direct raster access, created once on first use
+     */
+    public PixelData getPixels() {
+        if (pixels == null) {
+            pixels = PixelData.of(image);
+        }
+        return pixels;
+    }
 }
@@ -0,0 +1,217 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.image.model;
+
+/**
+ * Channel sums of an image over 2x2, 4x4 and 8x8 pixel cells, i.e. the image at 1/2, 1/4 and 1/8 size.
+ * <p>
+ * Every cell also holds a signature, the sum of a hash of each of its pixels together with the pixel position,
+ * so that changes cancelling out in the channel sums (e.g. two pixels swapped) still change the signature.
+ * <p>
+ * Two pyramids are compared coarsest level first, descending only into the cells whose sums or signatures differ,
+ * and full size pixels are compared only within the 2x2 cells still differing at the 1/2 level.
+ * The absolute difference of sums never exceeds the sum of absolute differences, so every level
+ * gives a lower bound of the deviation and grossly different images are rejected from the coarse levels alone.
+ * Cells with equal sums and signatures are assumed identical, which is wrong only on a 64 bit hash collision.
+ * <p>
+ * Building a pyramid reads every pixel once; the savings come from reusing the pyramid of a baseline.
+ */
+public final class ImagePyramid {
+
+    public static final int LEVELS = 3;
+
+    private static final int HALF_BITS = 10;
+    private static final int BITS = 21;
+    private static final long MASK = (1L << BITS) - 1;
+
+    private final int width;
+    private final int height;
+    private final int[] widths = new int[LEVELS];
+    private final int[] heights = new int[LEVELS];
+    // 1/2 level, sums of 4 pixels fit into 10 bits per channel
+    private final int[] half;
+    // 1/4 and 1/8 levels, 21 bits per channel
+    private final long[][] coarse = new long[LEVELS - 1][];
+    // per level, sums of the position-aware hashes of the pixels of each cell
+    private final long[][] signatures = new long[LEVELS][];
+
+    private ImagePyramid(PixelData pixels) {
+        this.width = pixels.getWidth();
+        this.height = pixels.getHeight();
+        for (int level = 0; level < LEVELS; level++) {
+            int cell = 2 << level;
+            widths[level] = (width + cell - 1) / cell;
+            heights[level] = (height + cell - 1) / cell;
+        }
+        half = new int[widths[0] * heights[0]];
+        long[] halfSignatures = new long[half.length];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            pixels.readRow(0, y, width, row, 0);
+            int base = (y >> 1) * widths[0];
+            for (int x = 0; x < width; x++) {
+                int rgb = row[x];
+                half[base + (x >> 1)] += ((rgb >> 16) & 0xff) << (2 * HALF_BITS) | ((rgb >> 8) & 0xff) << HALF_BITS | (rgb & 0xff);
+                halfSignatures[base + (x >> 1)] += hash(x, y, rgb & 0xffffff);
+            }
+        }
+        signatures[0] = halfSignatures;
+        for (int level = 1; level < LEVELS; level++) {
+            long[] sums = new long[widths[level] * heights[level]];
+            long[] levelSignatures = new long[sums.length];
+            for (int y = 0; y < heights[level - 1]; y++) {
+                int base = (y >> 1) * widths[level];
+                for (int x = 0; x < widths[level - 1]; x++) {
+                    int child = y * widths[level - 1] + x;
+                    sums[base + (x >> 1)] += sum(level - 1, child);
+                    levelSignatures[base + (x >> 1)] += signatures[level - 1][child];
+                }
+            }
+            coarse[level - 1] = sums;
+            signatures[level] = levelSignatures;
+        }
+    }
+
+    public static ImagePyramid of(PixelData pixels) {
+        return new ImagePyramid(pixels);
+    }
+
+    /**
+     * Sum channel differences descending from the coarsest level into differing cells only.
+     *
+     * @param other      pyramid of the other image, same dimensions
+     * @param comparator comparator of the two images
+     * @param budget     largest acceptable sum of channel differences
+     * @param mask       mask to mark differing pixels in, ignored if null
+     * @return sum of channel differences if it is within the budget,
+     * otherwise some lower bound of the sum greater than the budget
+     */
+    public long channelDifference(ImagePyramid other, PixelComparator comparator, long budget, DifferenceMask mask) {
+        if (width != other.width || height != other.height) {
+            throw new IllegalArgumentException("Pyramids of different images can not be compared");
+        }
+        int level = LEVELS - 1;
+        boolean[] candidates = new boolean[widths[level] * heights[level]];
+        long bound = 0;
+        for (int i = 0; i < candidates.length; i++) {
+            long a = sum(level, i);
+            long b = other.sum(level, i);
+            if (a != b || signatures[level][i] != other.signatures[level][i]) {
+                candidates[i] = true;
+                bound += difference(a, b);
+            }
+        }
+        while (bound <= budget && level > 0) {
+            bound = 0;
+            boolean[] children = new boolean[widths[level - 1] * heights[level - 1]];
+            for (int i = 0; i < candidates.length; i++) {
+                if (candidates[i]) {
+                    bound += refine(other, level, i, children);
+                }
+            }
+            candidates = children;
+            level--;
+        }
+        if (bound > budget) {
+            return bound;
+        }
+        return fullSizeDifference(comparator, candidates, budget, mask);
+    }
+
+    /**
+     * Mark the differing children of a differing cell.
+     *
+     * @return sum of channel sum differences of the children
+     */
+    private long refine(ImagePyramid other, int level, int parent, boolean[] children) {
+        int childLevel = level - 1;
+        int childWidth = widths[childLevel];
+        int fromX = (parent % widths[level]) * 2;
+        int fromY = (parent / widths[level]) * 2;
+        int toX = Math.min(fromX + 2, childWidth);
+        int toY = Math.min(fromY + 2, heights[childLevel]);
+        long bound = 0;
+        for (int y = fromY; y < toY; y++) {
+            for (int x = fromX; x < toX; x++) {
+                int i = y * childWidth + x;
+                long a = sum(childLevel, i);
+                long b = other.sum(childLevel, i);
+                if (a != b || signatures[childLevel][i] != other.signatures[childLevel][i]) {
+                    children[i] = true;
+                    bound += difference(a, b);
+                }
+            }
+        }
+        return bound;
+    }
+
+    private long fullSizeDifference(PixelComparator comparator, boolean[] candidates, long budget, DifferenceMask mask) {
+        PixelComparator.RowBuffers rows = PixelComparator.RowBuffers.of(width);
+        int cellsWidth = widths[0];
+        long diff = 0;
+        for (int cellY = 0; cellY < heights[0] && diff <= budget; cellY++) {
+            int base = cellY * cellsWidth;
+            int cellX = 0;
+            while (cellX < cellsWidth) {
+                if (!candidates[base + cellX]) {
+                    cellX++;
+                    continue;
+                }
+                int runStart = cellX;
+                while (cellX < cellsWidth && candidates[base + cellX]) {
+                    cellX++;
+                }
+                int x = runStart * 2;
+                int length = Math.min(cellX * 2, width) - x;
+                for (int y = cellY * 2; y < Math.min(cellY * 2 + 2, height); y++) {
+                    diff += comparator.rowDifference(x, y, length, rows, mask);
+                }
+            }
+        }
+        return diff;
+    }
+
+    /**
+     * @return channel sums of the cell packed into 21 bits per channel
+     */
+    private long sum(int level, int i) {
+        if (level > 0) {
+            return coarse[level - 1][i];
+        }
+        int packed = half[i];
+        int mask = (1 << HALF_BITS) - 1;
+        return (long) ((packed >> (2 * HALF_BITS)) & mask) << (2 * BITS)
+                | (long) ((packed >> HALF_BITS) & mask) << BITS
+                | (packed & mask);
+    }
+
+    /**
+     * @return well mixed 64 bit hash of the pixel color at the position, finalizer of MurmurHash3
+     */
+    private static long hash(int x, int y, int rgb) {
+        long h = ((long) y << 40 | (long) x << 24 | rgb) * 0x9e3779b97f4a7c15L;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static long difference(long a, long b) {
+        return Math.abs(((a >>> (2 * BITS)) & MASK) - ((b >>> (2 * BITS)) & MASK))
+                + Math.abs(((a >>> BITS) & MASK) - ((b >>> BITS) & MASK))
+                + Math.abs((a & MASK) - (b & MASK));
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
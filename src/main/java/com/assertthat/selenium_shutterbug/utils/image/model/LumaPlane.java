@@ -0,0 +1,123 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.image.model;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * 8-bit luminance of every pixel of an image, row by row,
+ * computed in fixed point as (77 R + 150 G + 29 B) / 256, i.e. Rec. 601 weights.
+ * A quarter of the size of the ARGB raster it is computed from.
+ */
+public final class LumaPlane {
+
+    private final int width;
+    private final int height;
+    private final byte[] luma;
+
+    private LumaPlane(int width, int height, byte[] luma) {
+        this.width = width;
+        this.height = height;
+        this.luma = luma;
+    }
+
+    public static LumaPlane of(BufferedImage image) {
+        return of(PixelData.of(image));
+    }
+
+    public static LumaPlane of(PixelData pixels) {
+        int width = pixels.getWidth();
+        int height = pixels.getHeight();
+        byte[] luma = new byte[width * height];
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            pixels.readRow(0, y, width, row, 0);
+            int base = y * width;
+            for (int x = 0; x < width; x++) {
+                luma[base + x] = (byte) luma(row[x]);
+            }
+        }
+        return new LumaPlane(width, height, luma);
+    }
+
+    /**
+     * @param rgb pixel value
+     * @return luminance of the pixel, 0 to 255
+     */
+    public static int luma(int rgb) {
+        return (77 * ((rgb >> 16) & 0xff) + 150 * ((rgb >> 8) & 0xff) + 29 * (rgb & 0xff) + 128) >> 8;
+    }
+
+    /**
+     * Sum absolute luminance differences until they exceed the budget.
+     *
+     * @param other  plane of the other image, same dimensions
+     * @param budget largest acceptable sum of differences
+     * @return exact sum of absolute differences if it is within the budget,
+     * otherwise some partial sum greater than the budget
+     */
+    public long difference(LumaPlane other, long budget) {
+        if (width != other.width || height != other.height) {
+            throw new IllegalArgumentException("Images dimensions mismatch: " + width + "x" + height
+                    + " vs " + other.width + "x" + other.height);
+        }
+        byte[] a = luma;
+        byte[] b = other.luma;
+        long diff = 0;
+        for (int y = 0; y < height && diff <= budget; y++) {
+            int end = (y + 1) * width;
+            for (int i = y * width; i < end; i++) {
+                if (a[i] != b[i]) {
+                    diff += Math.abs((a[i] & 0xff) - (b[i] & 0xff));
+                }
+            }
+        }
+        return diff;
+    }
+
+    /**
+     * @param other     plane of the other image, same dimensions
+     * @param deviation allowed deviation, share of the maximum luminance difference
+     * @return exact luminance deviation if within the allowed one, otherwise a lower bound of it
+     */
+    public BoundedDeviation compareWithinDeviation(LumaPlane other, double deviation) {
+        double n = (double) width * height;
+        long budget = ImageData.differenceBudget(deviation, n);
+        long diff = difference(other, budget);
+        return new BoundedDeviation(diff / n / 255.0, deviation, diff > budget);
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @param x column
+     * @param y row
+     * @return luminance of the pixel, 0 to 255
+     */
+    public int get(int x, int y) {
+        return luma[y * width + x] & 0xff;
+    }
+
+    /**
+     * @return luminance values row by row, shared with this plane and not to be modified
+     */
+    byte[] getLuma() {
+        return luma;
+    }
+
+    /**
+     * @return size of the plane in bytes
+     */
+    public long getBytes() {
+        return luma.length;
+    }
+}
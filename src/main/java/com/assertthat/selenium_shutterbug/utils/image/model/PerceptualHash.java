@@ -0,0 +1,73 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.image.model;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * 64-bit difference hash (dHash) of an image: the image is reduced to a 9x8 grid
+ * of luminance cells and every bit tells whether a cell is brighter than its right neighbour.
+ * Similar looking images have hashes within a small Hamming distance.
+ * <p>
+ * Cells are averaged from a fixed grid of samples rather than from every pixel,
+ * so hashing costs the same for any image size.
+ */
+public final class PerceptualHash {
+
+    public static final int BITS = 64;
+
+    private static final int COLUMNS = 9;
+    private static final int ROWS = 8;
+    private static final int SAMPLES_PER_CELL = 16;
+
+    private PerceptualHash() {
+    }
+
+    public static long dHash(BufferedImage image) {
+        return dHash(PixelData.of(image));
+    }
+
+    public static long dHash(PixelData pixels) {
+        int width = pixels.getWidth();
+        int height = pixels.getHeight();
+        long[] cells = new long[COLUMNS * ROWS];
+        int samplesX = Math.min(COLUMNS * SAMPLES_PER_CELL, width);
+        int samplesY = Math.min(ROWS * SAMPLES_PER_CELL, height);
+        int[] counts = new int[COLUMNS * ROWS];
+        for (int sy = 0; sy < samplesY; sy++) {
+            int y = (int) ((sy + 0.5) * height / samplesY);
+            int row = sy * ROWS / samplesY;
+            for (int sx = 0; sx < samplesX; sx++) {
+                int x = (int) ((sx + 0.5) * width / samplesX);
+                int cell = row * COLUMNS + sx * COLUMNS / samplesX;
+                int rgb = pixels.getRGB(x, y);
+                cells[cell] += 77 * ((rgb >> 16) & 0xff) + 150 * ((rgb >> 8) & 0xff) + 29 * (rgb & 0xff);
+                counts[cell]++;
+            }
+        }
+        long hash = 0;
+        for (int row = 0; row < ROWS; row++) {
+            for (int column = 0; column < COLUMNS - 1; column++) {
+                int cell = row * COLUMNS + column;
+                // compare averages without dividing: a/ca > b/cb <=> a*cb > b*ca
+                hash <<= 1;
+                if (cells[cell] * Math.max(counts[cell + 1], 1) > cells[cell + 1] * Math.max(counts[cell], 1)) {
+                    hash |= 1;
+                }
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @param hash1 first hash
+     * @param hash2 second hash
+     * @return number of differing bits, 0 to {@value #BITS}
+     */
+    public static int distance(long hash1, long hash2) {
+        return Long.bitCount(hash1 ^ hash2);
+    }
+}
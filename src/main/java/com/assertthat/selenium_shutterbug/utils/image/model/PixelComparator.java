@@ -0,0 +1,311 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.image.model;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pixel by pixel comparison of two equally sized images working directly on their rasters.
+ * Runs of identical pixels are skipped with a tight scan over the packed values,
+ * channel differences are only computed where pixels actually differ.
+ * <p>
+ * Instances are stateless and may be shared between threads. Whole image operations
+ * optionally run on a ForkJoinPool, split into horizontal bands. Band sums are exact
+ * integers, so the parallel result is identical to the sequential one.
+ */
+public final class PixelComparator {
+
+    /**
+     * Bands are not split below this number of pixels.
+     */
+    private static final int MIN_BAND_PIXELS = 1 << 16;
+
+    private final PixelData first;
+    private final PixelData second;
+    private final boolean sameEncoding;
+
+    public PixelComparator(PixelData first, PixelData second) {
+        if (first.getWidth() != second.getWidth() || first.getHeight() != second.getHeight()) {
+            throw new IllegalArgumentException("Images dimensions mismatch: " + first.getWidth() + "x" + first.getHeight()
+                    + " vs " + second.getWidth() + "x" + second.getHeight());
+        }
+        this.first = first;
+        this.second = second;
+        this.sameEncoding = first.sameIntEncoding(second);
+    }
+
+    public PixelData getFirst() {
+        return first;
+    }
+
+    public PixelData getSecond() {
+        return second;
+    }
+
+    public int getWidth() {
+        return first.getWidth();
+    }
+
+    public int getHeight() {
+        return first.getHeight();
+    }
+
+    /**
+     * @return sum of absolute red, green and blue differences over the whole image
+     */
+    public long channelDifference() {
+        return channelDifference(0, 0, getWidth(), getHeight());
+    }
+
+    /**
+     * @param pool pool to split the comparison over, sequential if null
+     * @return sum of absolute red, green and blue differences over the whole image
+     */
+    public long channelDifference(ForkJoinPool pool) {
+        return channelDifference(pool, null);
+    }
+
+    /**
+     * Sum channel differences recording at the same time where pixels differ,
+     * so a differences image can be produced without scanning the images again.
+     *
+     * @param pool pool to split the comparison over, sequential if null
+     * @param mask mask to mark differing pixels in, ignored if null
+     * @return sum of absolute red, green and blue differences over the whole image
+     */
+    public long channelDifference(ForkJoinPool pool, DifferenceMask mask) {
+        if (pool == null) {
+            return channelDifference(0, 0, getWidth(), getHeight(), mask);
+        }
+        return pool.invoke(new DifferenceTask(0, getHeight(), mask));
+    }
+
+    /**
+     * Sum channel differences until they exceed the budget.
+     * Rows are checked against the budget as they are scanned,
+     * so grossly different images return after a few rows.
+     *
+     * @param budget largest acceptable sum of channel differences
+     * @param pool   pool to split the comparison over, sequential if null
+     * @return exact sum of channel differences if it is within the budget,
+     * otherwise some partial sum greater than the budget
+     */
+    public long channelDifference(long budget, ForkJoinPool pool) {
+        return channelDifference(budget, pool, null);
+    }
+
+    /**
+     * Same as {@link #channelDifference(long, ForkJoinPool)} recording where pixels differ
+     * within the scanned rows.
+     *
+     * @param budget largest acceptable sum of channel differences
+     * @param pool   pool to split the comparison over, sequential if null
+     * @param mask   mask to mark differing pixels in, ignored if null
+     * @return exact sum of channel differences if it is within the budget,
+     * otherwise some partial sum greater than the budget
+     */
+    public long channelDifference(long budget, ForkJoinPool pool, DifferenceMask mask) {
+        AtomicLong total = new AtomicLong();
+        BoundedDifferenceAction action = new BoundedDifferenceAction(0, getHeight(), budget, total, mask);
+        if (pool == null) {
+            action.scan();
+        } else {
+            pool.invoke(action);
+        }
+        return total.get();
+    }
+
+    /**
+     * @param x      left of the region
+     * @param y      top of the region
+     * @param width  width of the region
+     * @param height height of the region
+     * @return sum of absolute red, green and blue differences within the region
+     */
+    public long channelDifference(int x, int y, int width, int height) {
+        return channelDifference(x, y, width, height, null);
+    }
+
+    /**
+     * @param x      left of the region
+     * @param y      top of the region
+     * @param width  width of the region
+     * @param height height of the region
+     * @param mask   mask to mark differing pixels in, ignored if null
+     * @return sum of absolute red, green and blue differences within the region
+     */
+    public long channelDifference(int x, int y, int width, int height, DifferenceMask mask) {
+        RowBuffers rows = RowBuffers.of(width);
+        long diff = 0;
+        for (int row = y; row < y + height; row++) {
+            diff += rowDifference(x, row, width, rows, mask);
+        }
+        return diff;
+    }
+
+    /**
+     * Sum of absolute channel differences within a part of a single row.
+     *
+     * @param x      first column
+     * @param y      row
+     * @param length number of pixels
+     * @param rows   scratch buffers, at least <b>length</b> wide
+     * @param mask   mask to mark differing pixels in, ignored if null
+     * @return sum of absolute red, green and blue differences
+     */
+    long rowDifference(int x, int y, int length, RowBuffers rows, DifferenceMask mask) {
+        int[] a;
+        int ai;
+        int[] b;
+        int bi;
+        if (sameEncoding) {
+            a = first.getInts();
+            ai = first.index(x, y);
+            b = second.getInts();
+            bi = second.index(x, y);
+        } else {
+            a = rows.first;
+            ai = 0;
+            b = rows.second;
+            bi = 0;
+            first.readRow(x, y, length, a, 0);
+            second.readRow(x, y, length, b, 0);
+        }
+        long diff = 0;
+        int i = 0;
+        while (i < length) {
+            i = mismatch(a, ai, b, bi, i, length);
+            if (i == length) {
+                break;
+            }
+            int rgb1 = first.normalize(a[ai + i]);
+            int rgb2 = second.normalize(b[bi + i]);
+            if (mask != null && rgb1 != rgb2) {
+                mask.mark(x + i, y);
+            }
+            diff += channelDifference(rgb1, rgb2);
+            i++;
+        }
+        return diff;
+    }
+
+    private int splitRow(int fromY, int toY) {
+        if ((long) (toY - fromY) * getWidth() <= MIN_BAND_PIXELS || toY - fromY < 2) {
+            return -1;
+        }
+        return (fromY + toY) >>> 1;
+    }
+
+    /**
+     * @return index of the first differing pixel at or after <b>from</b>, or <b>length</b> if none
+     */
+    private static int mismatch(int[] a, int ai, int[] b, int bi, int from, int length) {
+        int i = from;
+        while (i < length && a[ai + i] == b[bi + i]) {
+            i++;
+        }
+        return i;
+    }
+
+    static int channelDifference(int rgb1, int rgb2) {
+        return Math.abs(((rgb1 >> 16) & 0xff) - ((rgb2 >> 16) & 0xff))
+                + Math.abs(((rgb1 >> 8) & 0xff) - ((rgb2 >> 8) & 0xff))
+                + Math.abs((rgb1 & 0xff) - (rgb2 & 0xff));
+    }
+
+    private final class DifferenceTask extends RecursiveTask<Long> {
+        private final int fromY;
+        private final int toY;
+        private final DifferenceMask mask;
+
+        DifferenceTask(int fromY, int toY, DifferenceMask mask) {
+            this.fromY = fromY;
+            this.toY = toY;
+            this.mask = mask;
+        }
+
+        @Override
+        protected Long compute() {
+            int middle = splitRow(fromY, toY);
+            if (middle < 0) {
+                return channelDifference(0, fromY, getWidth(), toY - fromY, mask);
+            }
+            DifferenceTask top = new DifferenceTask(fromY, middle, mask);
+            top.fork();
+            long bottom = new DifferenceTask(middle, toY, mask).compute();
+            return top.join() + bottom;
+        }
+    }
+
+    private final class BoundedDifferenceAction extends RecursiveAction {
+        private final int fromY;
+        private final int toY;
+        private final long budget;
+        private final AtomicLong total;
+        private final DifferenceMask mask;
+
+        BoundedDifferenceAction(int fromY, int toY, long budget, AtomicLong total, DifferenceMask mask) {
+            this.fromY = fromY;
+            this.toY = toY;
+            this.budget = budget;
+            this.total = total;
+            this.mask = mask;
+        }
+
+        @Override
+        protected void compute() {
+            int middle = splitRow(fromY, toY);
+            if (middle < 0) {
+                scan();
+                return;
+            }
+            invokeAll(new BoundedDifferenceAction(fromY, middle, budget, total, mask),
+                    new BoundedDifferenceAction(middle, toY, budget, total, mask));
+        }
+
+        void scan() {
+            int width = getWidth();
+            RowBuffers rows = RowBuffers.of(width);
+            for (int y = fromY; y < toY && total.get() <= budget; y++) {
+                long diff = rowDifference(0, y, width, rows, mask);
+                if (diff != 0) {
+                    total.addAndGet(diff);
+                }
+            }
+        }
+    }
+
+    /**
+     * Per-thread scratch rows used when pixels can not be compared in place.
+     */
+    public static final class RowBuffers {
+        private static final ThreadLocal<RowBuffers> CURRENT = new ThreadLocal<>();
+
+        final int[] first;
+        final int[] second;
+
+        public RowBuffers(int width) {
+            this.first = new int[width];
+            this.second = new int[width];
+        }
+
+        /**
+         * @param width number of pixels per row
+         * @return buffers of the current thread, reused by later comparisons of rows as wide or narrower
+         */
+        public static RowBuffers of(int width) {
+            RowBuffers rows = CURRENT.get();
+            if (rows == null || rows.first.length < width) {
+                rows = new RowBuffers(width);
+                CURRENT.set(rows);
+            }
+            return rows;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.image.model;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+/**
+ * Read-only view of the pixels of a BufferedImage, normalized to the
+ * non-premultiplied ARGB values returned by {@link BufferedImage#getRGB(int, int)}.
+ * <p>
+ * TYPE_INT_RGB and TYPE_INT_ARGB images are read in place from their backing int[],
+ * TYPE_3BYTE_BGR and TYPE_4BYTE_ABGR straight from their backing byte[].
+ * Any other layout is converted once with a single bulk getRGB call.
+ */
+public final class PixelData {
+
+    private static final int OPAQUE = 0xff000000;
+
+    private final BufferedImage image;
+    private final int width;
+    private final int height;
+    private final int[] ints;
+    private final byte[] bytes;
+    private final int offset;
+    private final int scanline;
+    private final int pixelStride;
+    private final int rgbMask;
+    private final int alphaFill;
+    private final int redOffset;
+    private final int greenOffset;
+    private final int blueOffset;
+    private final int alphaOffset;
+
+    private PixelData(BufferedImage image, int[] ints, byte[] bytes, int offset, int scanline, int pixelStride,
+                      int rgbMask, int alphaFill, int[] bandOffsets) {
+        this.image = image;
+        this.width = image.getWidth();
+        this.height = image.getHeight();
+        this.ints = ints;
+        this.bytes = bytes;
+        this.offset = offset;
+        this.scanline = scanline;
+        this.pixelStride = pixelStride;
+        this.rgbMask = rgbMask;
+        this.alphaFill = alphaFill;
+        this.redOffset = bandOffsets == null ? 0 : bandOffsets[0];
+        this.greenOffset = bandOffsets == null ? 0 : bandOffsets[1];
+        this.blueOffset = bandOffsets == null ? 0 : bandOffsets[2];
+        this.alphaOffset = bandOffsets == null || bandOffsets.length < 4 ? -1 : bandOffsets[3];
+    }
+
+    public static PixelData of(BufferedImage image) {
+        Raster raster = image.getRaster();
+        DataBuffer buffer = raster.getDataBuffer();
+        int translateX = raster.getSampleModelTranslateX();
+        int translateY = raster.getSampleModelTranslateY();
+        switch (image.getType()) {
+            case BufferedImage.TYPE_INT_RGB:
+            case BufferedImage.TYPE_INT_ARGB: {
+                if (!(buffer instanceof DataBufferInt) || buffer.getNumBanks() != 1
+                        || !(raster.getSampleModel() instanceof SinglePixelPackedSampleModel)) {
+                    break;
+                }
+                int scanline = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+                int offset = buffer.getOffset() - translateY * scanline - translateX;
+                boolean opaque = image.getType() == BufferedImage.TYPE_INT_RGB;
+                return new PixelData(image, ((DataBufferInt) buffer).getData(), null, offset, scanline, 1,
+                        opaque ? 0x00ffffff : 0xffffffff, opaque ? OPAQUE : 0, null);
+            }
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR: {
+                if (!(buffer instanceof DataBufferByte) || buffer.getNumBanks() != 1
+                        || !(raster.getSampleModel() instanceof ComponentSampleModel)) {
+                    break;
+                }
+                ComponentSampleModel sampleModel = (ComponentSampleModel) raster.getSampleModel();
+                int scanline = sampleModel.getScanlineStride();
+                int pixelStride = sampleModel.getPixelStride();
+                int offset = buffer.getOffset() - translateY * scanline - translateX * pixelStride;
+                return new PixelData(image, null, ((DataBufferByte) buffer).getData(), offset, scanline, pixelStride,
+                        0xffffffff, 0, sampleModel.getBandOffsets());
+            }
+            default:
+                break;
+        }
+        int width = image.getWidth();
+        int[] argb = image.getRGB(0, 0, width, image.getHeight(), null, 0, width);
+        return new PixelData(image, argb, null, 0, width, 1, 0xffffffff, 0, null);
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return true if pixels are stored as packed ints and can be scanned
+     * in place via {@link #getInts()} and {@link #index(int, int)}
+     */
+    public boolean isIntPacked() {
+        return ints != null;
+    }
+
+    /**
+     * @return backing int[] of an int packed image (may be shared with the image itself, never modify it)
+     */
+    public int[] getInts() {
+        return ints;
+    }
+
+    /**
+     * @param x column
+     * @param y row
+     * @return index of the pixel within {@link #getInts()}
+     */
+    public int index(int x, int y) {
+        return offset + y * scanline + x;
+    }
+
+    /**
+     * @param pixel raw value read from {@link #getInts()}
+     * @return the value getRGB would have returned for it
+     */
+    public int normalize(int pixel) {
+        return (pixel & rgbMask) | alphaFill;
+    }
+
+    /**
+     * @param other pixel data to check against
+     * @return true if raw packed values of both images can be compared as is
+     */
+    public boolean sameIntEncoding(PixelData other) {
+        return isIntPacked() && other.isIntPacked() && rgbMask == other.rgbMask && alphaFill == other.alphaFill;
+    }
+
+    public int getRGB(int x, int y) {
+        if (ints != null) {
+            return normalize(ints[index(x, y)]);
+        }
+        int i = offset + y * scanline + x * pixelStride;
+        int alpha = alphaOffset < 0 ? 0xff : bytes[i + alphaOffset] & 0xff;
+        return alpha << 24 | (bytes[i + redOffset] & 0xff) << 16 | (bytes[i + greenOffset] & 0xff) << 8 | bytes[i + blueOffset] & 0xff;
+    }
+
+    /**
+     * Copy normalized ARGB values of part of a row.
+     *
+     * @param x         first column
+     * @param y         row
+     * @param length    number of pixels to copy
+     * @param dst       destination array
+     * @param dstOffset first index to write to in destination
+     */
+    public void readRow(int x, int y, int length, int[] dst, int dstOffset) {
+        if (ints != null) {
+            int i = index(x, y);
+            if (rgbMask == 0xffffffff && alphaFill == 0) {
+                System.arraycopy(ints, i, dst, dstOffset, length);
+            } else {
+                for (int k = 0; k < length; k++) {
+                    dst[dstOffset + k] = (ints[i + k] & rgbMask) | alphaFill;
+                }
+            }
+            return;
+        }
+        int i = offset + y * scanline + x * pixelStride;
+        if (alphaOffset < 0) {
+            for (int k = 0; k < length; k++, i += pixelStride) {
+                dst[dstOffset + k] = OPAQUE | (bytes[i + redOffset] & 0xff) << 16 | (bytes[i + greenOffset] & 0xff) << 8 | bytes[i + blueOffset] & 0xff;
+            }
+        } else {
+            for (int k = 0; k < length; k++, i += pixelStride) {
+                dst[dstOffset + k] = (bytes[i + alphaOffset] & 0xff) << 24 | (bytes[i + redOffset] & 0xff) << 16 | (bytes[i + greenOffset] & 0xff) << 8 | bytes[i + blueOffset] & 0xff;
+            }
+        }
+    }
+}
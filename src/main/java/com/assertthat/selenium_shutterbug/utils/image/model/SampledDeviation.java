@@ -0,0 +1,159 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.image.model;
+
+import java.util.SplittableRandom;
+import java.util.function.DoubleFunction;
+
+/**
+ * Deviation estimated from a stratified random sample of pixels, with a 99% confidence interval.
+ * <p>
+ * The image is split into 64x64 tiles and every tile contributes samples in proportion to its size,
+ * so changes anywhere on the page get sampled. When the interval contains the allowed deviation
+ * the sample can not decide and the images are compared exactly instead.
+ * <p>
+ * Changes of only a handful of pixels are likely to be missed by the sample:
+ * this is a check for real breakage, not for pixel exactness.
+ */
+public final class SampledDeviation {
+
+    public static final long DEFAULT_SEED = 0x5eed;
+
+    private static final int STRATUM_SIZE = 64;
+    private static final double Z_99 = 2.576;
+
+    private final double deviation;
+    private final double lowerBound;
+    private final double upperBound;
+    private final double allowedDeviation;
+    private final long sampleSize;
+    private final boolean exact;
+    private final boolean equal;
+
+    private SampledDeviation(double deviation, double lowerBound, double upperBound, double allowedDeviation,
+                             long sampleSize, boolean exact, boolean equal) {
+        this.deviation = deviation;
+        this.lowerBound = lowerBound;
+        this.upperBound = upperBound;
+        this.allowedDeviation = allowedDeviation;
+        this.sampleSize = sampleSize;
+        this.exact = exact;
+        this.equal = equal;
+    }
+
+    /**
+     * @param comparator       comparator of the two images
+     * @param allowedDeviation allowed deviation
+     * @param sampleFraction   fraction of pixels to sample, e.g. 0.01
+     * @param seed             seed of the random sample
+     * @param exactDeviation   exact comparison used when the sample can not decide
+     * @return estimated deviation, or the exact one when the sample could not decide
+     */
+    static SampledDeviation estimate(PixelComparator comparator, double allowedDeviation, double sampleFraction, long seed,
+                                     DoubleFunction<BoundedDeviation> exactDeviation) {
+        PixelData first = comparator.getFirst();
+        PixelData second = comparator.getSecond();
+        int width = comparator.getWidth();
+        int height = comparator.getHeight();
+        double pixels = (double) width * height;
+        SplittableRandom random = new SplittableRandom(seed);
+        double mean = 0;
+        double variance = 0;
+        long sampleSize = 0;
+        long differing = 0;
+        for (int top = 0; top < height; top += STRATUM_SIZE) {
+            int stratumHeight = Math.min(STRATUM_SIZE, height - top);
+            for (int left = 0; left < width; left += STRATUM_SIZE) {
+                int stratumWidth = Math.min(STRATUM_SIZE, width - left);
+                int stratumPixels = stratumWidth * stratumHeight;
+                int samples = Math.max(2, (int) Math.ceil(stratumPixels * sampleFraction));
+                double sum = 0;
+                double sumOfSquares = 0;
+                for (int i = 0; i < samples; i++) {
+                    int x = left + random.nextInt(stratumWidth);
+                    int y = top + random.nextInt(stratumHeight);
+                    int diff = PixelComparator.channelDifference(first.getRGB(x, y), second.getRGB(x, y));
+                    if (diff != 0) {
+                        double d = diff / (3 * 255.0);
+                        sum += d;
+                        sumOfSquares += d * d;
+                        differing++;
+                    }
+                }
+                double weight = stratumPixels / pixels;
+                double stratumMean = sum / samples;
+                double stratumVariance = Math.max(0, (sumOfSquares - samples * stratumMean * stratumMean) / (samples - 1));
+                mean += weight * stratumMean;
+                variance += weight * weight * stratumVariance / samples;
+                sampleSize += samples;
+            }
+        }
+        double margin = Z_99 * Math.sqrt(variance);
+        double lower = Math.max(0, mean - margin);
+        double upper = Math.min(1, mean + margin);
+        if (differing == 0) {
+            // Nothing sampled differs: 99% upper bound of the fraction of differing pixels, which bounds the deviation
+            upper = Math.min(1, 4.6 / sampleSize);
+        }
+        if (upper <= allowedDeviation) {
+            return new SampledDeviation(mean, lower, upper, allowedDeviation, sampleSize, false, true);
+        }
+        if (lower > allowedDeviation) {
+            return new SampledDeviation(mean, lower, upper, allowedDeviation, sampleSize, false, false);
+        }
+        BoundedDeviation exact = exactDeviation.apply(allowedDeviation);
+        if (exact.isEqual()) {
+            return new SampledDeviation(exact.getDeviation(), exact.getDeviation(), exact.getDeviation(), allowedDeviation, sampleSize, true, true);
+        }
+        return new SampledDeviation(exact.getDeviation(), Math.max(lower, exact.getDeviation()), upper, allowedDeviation, sampleSize, true, false);
+    }
+
+    /**
+     * @return estimated deviation, exact if {@link #isExact()}
+     */
+    public double getDeviation() {
+        return deviation;
+    }
+
+    public double getLowerBound() {
+        return lowerBound;
+    }
+
+    public double getUpperBound() {
+        return upperBound;
+    }
+
+    public double getAllowedDeviation() {
+        return allowedDeviation;
+    }
+
+    /**
+     * @return number of pixels sampled
+     */
+    public long getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * @return true if the confidence interval contained the allowed deviation and the images were compared exactly
+     */
+    public boolean isExact() {
+        return exact;
+    }
+
+    /**
+     * @return true if deviation is within the allowed one
+     */
+    public boolean isEqual() {
+        return equal;
+    }
+
+    @Override
+    public String toString() {
+        return (exact ? "Deviation " : "Estimated deviation ") + deviation
+                + " [" + lowerBound + ", " + upperBound + "] (allowed " + allowedDeviation + ", " + sampleSize + " samples)";
+    }
+}
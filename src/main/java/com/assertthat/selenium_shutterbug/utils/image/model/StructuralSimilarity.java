@@ -0,0 +1,211 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.image.model;
+
+/**
+ * Structural similarity (SSIM) of two luminance planes over square windows sliding by one pixel,
+ * reported as the mean over the whole image and the mean per tile (by the window's top left pixel).
+ * <p>
+ * Window statistics are read from summed-area tables, so every window costs the same whatever its size.
+ * Tables are built per band of tile rows to bound memory on very tall images.
+ */
+public final class StructuralSimilarity {
+
+    public static final int DEFAULT_WINDOW = 8;
+    public static final int DEFAULT_TILE_SIZE = 64;
+
+    private static final double C1 = (0.01 * 255) * (0.01 * 255);
+    private static final double C2 = (0.03 * 255) * (0.03 * 255);
+
+    private final double score;
+    private final int tileSize;
+    private final int columns;
+    private final int rows;
+    private final double[] tileScores;
+
+    private StructuralSimilarity(double score, int tileSize, int columns, int rows, double[] tileScores) {
+        this.score = score;
+        this.tileSize = tileSize;
+        this.columns = columns;
+        this.rows = rows;
+        this.tileScores = tileScores;
+    }
+
+    /**
+     * @param first    luminance of the first image
+     * @param second   luminance of the second image, same dimensions
+     * @param window   window width and height in pixels, reduced to the image size if larger
+     * @param tileSize tile width and height of the score map in pixels
+     * @return global and per tile similarity
+     */
+    public static StructuralSimilarity of(LumaPlane first, LumaPlane second, int window, int tileSize) {
+        int width = first.getWidth();
+        int height = first.getHeight();
+        if (width != second.getWidth() || height != second.getHeight()) {
+            throw new IllegalArgumentException("Images dimensions mismatch: " + width + "x" + height
+                    + " vs " + second.getWidth() + "x" + second.getHeight());
+        }
+        int size = Math.max(1, Math.min(window, Math.min(width, height)));
+        int columns = (width + tileSize - 1) / tileSize;
+        int tileRows = (height + tileSize - 1) / tileSize;
+        double[] tileSums = new double[columns * tileRows];
+        long[] tileCounts = new long[columns * tileRows];
+        // window positions, by top left pixel
+        int lastX = width - size;
+        int lastY = height - size;
+        int stride = width + 1;
+        int bandRows = tileSize + size - 1;
+        SummedAreaTables tables = new SummedAreaTables(stride, bandRows + 1);
+        byte[] a = first.getLuma();
+        byte[] b = second.getLuma();
+        double n = (double) size * size;
+        double total = 0;
+        long count = 0;
+        for (int tileY = 0; tileY * tileSize <= lastY; tileY++) {
+            int top = tileY * tileSize;
+            int bottom = Math.min(top + bandRows, height);
+            tables.build(a, b, width, top, bottom);
+            for (int y = top; y < Math.min(top + tileSize, lastY + 1); y++) {
+                int r0 = (y - top) * stride;
+                int r1 = (y - top + size) * stride;
+                for (int x = 0; x <= lastX; x++) {
+                    int i00 = r0 + x;
+                    int i01 = r0 + x + size;
+                    int i10 = r1 + x;
+                    int i11 = r1 + x + size;
+                    double meanA = tables.sumA.window(i00, i01, i10, i11) / n;
+                    double meanB = tables.sumB.window(i00, i01, i10, i11) / n;
+                    double varianceA = tables.sumAA.window(i00, i01, i10, i11) / n - meanA * meanA;
+                    double varianceB = tables.sumBB.window(i00, i01, i10, i11) / n - meanB * meanB;
+                    double covariance = tables.sumAB.window(i00, i01, i10, i11) / n - meanA * meanB;
+                    double ssim = (2 * meanA * meanB + C1) * (2 * covariance + C2)
+                            / ((meanA * meanA + meanB * meanB + C1) * (varianceA + varianceB + C2));
+                    int tile = tileY * columns + x / tileSize;
+                    tileSums[tile] += ssim;
+                    tileCounts[tile]++;
+                    total += ssim;
+                    count++;
+                }
+            }
+        }
+        double[] tileScores = new double[tileSums.length];
+        for (int i = 0; i < tileScores.length; i++) {
+            // tiles at the right or bottom edge too small for a window of their own
+            tileScores[i] = tileCounts[i] == 0 ? Double.NaN : tileSums[i] / tileCounts[i];
+        }
+        return new StructuralSimilarity(total / count, tileSize, columns, tileRows, tileScores);
+    }
+
+    /**
+     * @return mean similarity over all windows, 1 for identical images
+     */
+    public double getScore() {
+        return score;
+    }
+
+    /**
+     * @param column tile column
+     * @param row    tile row
+     * @return mean similarity of the windows starting within the tile, NaN if no window starts within it
+     */
+    public double getTileScore(int column, int row) {
+        return tileScores[row * columns + column];
+    }
+
+    /**
+     * @return lowest similarity of all tiles
+     */
+    public double getMinTileScore() {
+        double min = Double.NaN;
+        for (double tileScore : tileScores) {
+            if (!Double.isNaN(tileScore) && !(tileScore >= min)) {
+                min = tileScore;
+            }
+        }
+        return min;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    @Override
+    public String toString() {
+        return "SSIM " + score + " (lowest tile " + getMinTileScore() + ")";
+    }
+
+    private static final class SummedAreaTables {
+        private final int stride;
+        private final Table sumA;
+        private final Table sumB;
+        private final Table sumAA;
+        private final Table sumBB;
+        private final Table sumAB;
+
+        SummedAreaTables(int stride, int rows) {
+            this.stride = stride;
+            this.sumA = new Table(stride * rows);
+            this.sumB = new Table(stride * rows);
+            this.sumAA = new Table(stride * rows);
+            this.sumBB = new Table(stride * rows);
+            this.sumAB = new Table(stride * rows);
+        }
+
+        /**
+         * Build the tables of image rows top (inclusive) to bottom (exclusive), table row 0 being all zeroes.
+         */
+        void build(byte[] a, byte[] b, int width, int top, int bottom) {
+            for (int y = top; y < bottom; y++) {
+                int row = (y - top + 1) * stride;
+                int above = row - stride;
+                long rowA = 0;
+                long rowB = 0;
+                long rowAA = 0;
+                long rowBB = 0;
+                long rowAB = 0;
+                int base = y * width;
+                for (int x = 0; x < width; x++) {
+                    int va = a[base + x] & 0xff;
+                    int vb = b[base + x] & 0xff;
+                    rowA += va;
+                    rowB += vb;
+                    rowAA += va * va;
+                    rowBB += vb * vb;
+                    rowAB += va * vb;
+                    int i = row + x + 1;
+                    sumA.values[i] = sumA.values[above + x + 1] + rowA;
+                    sumB.values[i] = sumB.values[above + x + 1] + rowB;
+                    sumAA.values[i] = sumAA.values[above + x + 1] + rowAA;
+                    sumBB.values[i] = sumBB.values[above + x + 1] + rowBB;
+                    sumAB.values[i] = sumAB.values[above + x + 1] + rowAB;
+                }
+            }
+        }
+    }
+
+    private static final class Table {
+        private final long[] values;
+
+        Table(int size) {
+            this.values = new long[size];
+        }
+
+        /**
+         * @return sum over the window from the table corners: top left, top right, bottom left, bottom right
+         */
+        double window(int i00, int i01, int i10, int i11) {
+            return values[i11] - values[i10] - values[i01] + values[i00];
+        }
+    }
+}
@@ -0,0 +1,272 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.image.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * 64-bit hash of every fixed-size tile of an image, row by row.
+ * Tiles with equal hashes are assumed identical without comparing their pixels, so only tiles
+ * whose hashes differ need a pixel level comparison. A change is missed only if it leaves
+ * the hash of its tile unchanged, which for a 64-bit hash is a chance of about 1 in 2^64 per tile.
+ * <p>
+ * The index of a baseline is stored in a sidecar file in a cache directory, shutterbug-tiles under
+ * the temporary directory by default (see {@link #setSidecarDirectory(File)}), and rebuilt automatically
+ * whenever the image file's size or modification time changes.
+ */
+public final class TileHashIndex {
+
+    public static final int DEFAULT_TILE_SIZE = 64;
+    public static final String EXTENSION = ".tiles";
+
+    private static final int MAGIC = 0x53425448;
+    private static final int VERSION = 1;
+
+    private static volatile File sidecarDirectory = new File(System.getProperty("java.io.tmpdir"), "shutterbug-tiles");
+
+    private final int tileSize;
+    private final int width;
+    private final int height;
+    private final int columns;
+    private final int rows;
+    private final long[] hashes;
+
+    private TileHashIndex(int tileSize, int width, int height, long[] hashes) {
+        this.tileSize = tileSize;
+        this.width = width;
+        this.height = height;
+        this.columns = (width + tileSize - 1) / tileSize;
+        this.rows = (height + tileSize - 1) / tileSize;
+        this.hashes = hashes;
+    }
+
+    /**
+     * Hash the tiles of an image.
+     *
+     * @param pixels   image pixels
+     * @param tileSize tile width and height in pixels
+     * @return index of tile hashes
+     */
+    public static TileHashIndex of(PixelData pixels, int tileSize) {
+        int width = pixels.getWidth();
+        int height = pixels.getHeight();
+        int columns = (width + tileSize - 1) / tileSize;
+        int tileRows = (height + tileSize - 1) / tileSize;
+        long[] hashes = new long[columns * tileRows];
+        Arrays.fill(hashes, 0xcbf29ce484222325L);
+        int[] row = new int[width];
+        for (int y = 0; y < height; y++) {
+            pixels.readRow(0, y, width, row, 0);
+            int base = (y / tileSize) * columns;
+            for (int column = 0; column < columns; column++) {
+                int from = column * tileSize;
+                int to = Math.min(from + tileSize, width);
+                long hash = hashes[base + column];
+                for (int x = from; x < to; x++) {
+                    hash = (hash ^ row[x]) * 0x100000001b3L;
+                }
+                hashes[base + column] = hash;
+            }
+        }
+        for (int i = 0; i < hashes.length; i++) {
+            hashes[i] = mix(hashes[i]);
+        }
+        return new TileHashIndex(tileSize, width, height, hashes);
+    }
+
+    /**
+     * Store the indexes of baselines in sidecar files in the directory from now on.
+     *
+     * @param directory directory to keep sidecar files in, created if missing; null not to store them,
+     *                  in which case baselines are compared without tile indexes
+     */
+    public static void setSidecarDirectory(File directory) {
+        sidecarDirectory = directory;
+    }
+
+    public static File getSidecarDirectory() {
+        return sidecarDirectory;
+    }
+
+    /**
+     * Same as {@link #forBaseline(File, PixelData, int, File)} with the directory set by {@link #setSidecarDirectory(File)}.
+     *
+     * @param baseline       baseline image file
+     * @param baselinePixels decoded pixels of the baseline image
+     * @param tileSize       tile width and height in pixels
+     * @return index of tile hashes of the baseline
+     */
+    public static TileHashIndex forBaseline(File baseline, PixelData baselinePixels, int tileSize) {
+        return forBaseline(baseline, baselinePixels, tileSize, sidecarDirectory);
+    }
+
+    /**
+     * Load the index of a baseline image from its sidecar file,
+     * rebuilding and storing it if it is missing or out of date.
+     *
+     * @param baseline         baseline image file
+     * @param baselinePixels   decoded pixels of the baseline image
+     * @param tileSize         tile width and height in pixels
+     * @param sidecarDirectory directory to keep the sidecar file in, null to only build the index
+     * @return index of tile hashes of the baseline
+     */
+    public static TileHashIndex forBaseline(File baseline, PixelData baselinePixels, int tileSize, File sidecarDirectory) {
+        if (sidecarDirectory == null) {
+            return of(baselinePixels, tileSize);
+        }
+        File sidecar = sidecarFile(baseline, sidecarDirectory);
+        long length = baseline.length();
+        long lastModified = baseline.lastModified();
+        TileHashIndex index = read(sidecar, length, lastModified, tileSize);
+        if (index == null || index.width != baselinePixels.getWidth() || index.height != baselinePixels.getHeight()) {
+            index = of(baselinePixels, tileSize);
+            index.write(sidecar, length, lastModified);
+        }
+        return index;
+    }
+
+    /**
+     * @param baseline         baseline image file
+     * @param sidecarDirectory directory to keep sidecar files in
+     * @return sidecar file of the baseline, named after the baseline file and a hash of its path,
+     * so that equally named baselines of different folders do not share it
+     */
+    public static File sidecarFile(File baseline, File sidecarDirectory) {
+        String path = baseline.getAbsolutePath();
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < path.length(); i++) {
+            hash = (hash ^ path.charAt(i)) * 0x100000001b3L;
+        }
+        return new File(sidecarDirectory, baseline.getName() + "-" + Long.toHexString(mix(hash)) + EXTENSION);
+    }
+
+    private static TileHashIndex read(File sidecar, long length, long lastModified, int tileSize) {
+        if (!sidecar.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sidecar.toPath())))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readLong() != length
+                    || in.readLong() != lastModified || in.readInt() != tileSize) {
+                return null;
+            }
+            int width = in.readInt();
+            int height = in.readInt();
+            long[] hashes = new long[in.readInt()];
+            for (int i = 0; i < hashes.length; i++) {
+                hashes[i] = in.readLong();
+            }
+            return new TileHashIndex(tileSize, width, height, hashes);
+        } catch (IOException e) {
+            // Unreadable or truncated sidecar, will be rebuilt
+            return null;
+        }
+    }
+
+    private void write(File sidecar, long length, long lastModified) {
+        File temp = new File(sidecar.getPath() + ".tmp");
+        try {
+            Files.createDirectories(sidecar.getParentFile().toPath());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp.toPath())))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(length);
+                out.writeLong(lastModified);
+                out.writeInt(tileSize);
+                out.writeInt(width);
+                out.writeInt(height);
+                out.writeInt(hashes.length);
+                for (long hash : hashes) {
+                    out.writeLong(hash);
+                }
+            }
+            Files.move(temp.toPath(), sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            // The index still serves the current comparison, it will be rebuilt next time
+            temp.delete();
+        }
+    }
+
+    /**
+     * Sum channel differences over the tiles whose hashes differ between two indexes.
+     *
+     * @param other      index of the other image, same dimensions and tile size
+     * @param comparator comparator of the two images
+     * @param mask       mask to mark differing pixels in, ignored if null
+     * @return sum of absolute red, green and blue differences
+     */
+    public long channelDifference(TileHashIndex other, PixelComparator comparator, DifferenceMask mask) {
+        if (!isComparableTo(other)) {
+            throw new IllegalArgumentException("Tile indexes of different images can not be compared");
+        }
+        long diff = 0;
+        for (int tileY = 0; tileY < rows; tileY++) {
+            for (int tileX = 0; tileX < columns; tileX++) {
+                int i = tileY * columns + tileX;
+                if (hashes[i] != other.hashes[i]) {
+                    int x = tileX * tileSize;
+                    int y = tileY * tileSize;
+                    diff += comparator.channelDifference(x, y, Math.min(tileSize, width - x), Math.min(tileSize, height - y), mask);
+                }
+            }
+        }
+        return diff;
+    }
+
+    /**
+     * @param other index to check
+     * @return true if both indexes cover equally sized images with the same tiles
+     */
+    public boolean isComparableTo(TileHashIndex other) {
+        return tileSize == other.tileSize && width == other.width && height == other.height;
+    }
+
+    /**
+     * @param other index of the other image
+     * @return number of tiles whose hashes differ
+     */
+    public int countChangedTiles(TileHashIndex other) {
+        int changed = 0;
+        for (int i = 0; i < hashes.length; i++) {
+            if (hashes[i] != other.hashes[i]) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTileCount() {
+        return hashes.length;
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
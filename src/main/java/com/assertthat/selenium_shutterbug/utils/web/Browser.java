@@ -5,7 +5,8 @@
 
 package com.assertthat.selenium_shutterbug.utils.web;
 
-import com.assertthat.selenium_shutterbug.utils.file.FileUtil;
+import com.assertthat.selenium_shutterbug.utils.image.ImagePool;
+import com.assertthat.selenium_shutterbug.utils.image.ImageProcessor;
 import com.github.zafarkhaja.semver.Version;
 import com.google.common.collect.ImmutableMap;
 import org.openqa.selenium.Dimension;
@@ -21,17 +22,15 @@ import org.openqa.selenium.remote.Response;
 import org.openqa.selenium.remote.http.HttpMethod;
 import org.openqa.selenium.support.ui.FluentWait;
 
-import javax.imageio.ImageIO;
 import java.awt.*;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.function.Function;
 
@@ -41,12 +40,16 @@ import java.util.function.Function;
 public class Browser {
 
     private static final String RELATIVE_COORDS_JS = "js/relative-element-coords.js";
+    private static final String ELEMENTS_COORDS_JS = "js/elements-coords.js";
     private static final String MAX_DOC_WIDTH_JS = "js/max-document-width.js";
     private static final String MAX_DOC_HEIGHT_JS = "js/max-document-height.js";
     private static final String VIEWPORT_HEIGHT_JS = "js/viewport-height.js";
     private static final String VIEWPORT_WIDTH_JS = "js/viewport-width.js";
+    private static final String VIEWPORT_CLIENT_SIZE_JS = "js/viewport-client-size.js";
     private static final String SCROLL_TO_JS = "js/scroll-to.js";
     private static final String SCROLL_BY_JS = "js/scroll-by.js";
+    private static final String SCROLL_AND_MEASURE_JS = "js/scroll-and-measure.js";
+    private static final String SCROLL_ELEMENT_AND_MEASURE_JS = "js/scroll-element-and-measure.js";
     private static final String SCROLL_ELEMENT = "js/scroll-element.js";
     private static final String SCROLL_INTO_VIEW_JS = "js/scroll-element-into-view.js";
     private static final String SCROLL_INTO_VIEW_VERTICAL_CENTERED_JS = "js/scroll-element-into-view-vertical-centered.js";
@@ -65,6 +68,8 @@ public class Browser {
             "-element-scrollX.js";
     private static final String ELEMENT_CURRENT_SCROLL_Y_JS = "js/get-current" +
             "-element-scrollY.js";
+    // times a scrolled capture is planned again when the document keeps growing, e.g. with infinite scrolling
+    private static final int MAX_REPLANS = 8;
 
     private WebDriver driver;
     private int docHeight = -1;
@@ -77,6 +82,9 @@ public class Browser {
 
     private Double devicePixelRatio = 1.0;
 
+    private boolean inPageHelper;
+    private int scrollOverlap;
+
     public Browser(WebDriver driver, boolean useDevicePixelRatio) {
         this.driver = driver;
         if (useDevicePixelRatio) {
@@ -85,6 +93,17 @@ public class Browser {
         }
     }
 
+    /**
+     * Install all the scripts in every page once as the window.__shutterbug helper object,
+     * and send only short invocations of it afterwards. The helper is installed again
+     * when missing from the page, e.g. after navigation.
+     *
+     * @param enabled true to use the in-page helper, false to send every script in full (default)
+     */
+    public void setInPageHelper(boolean enabled) {
+        this.inPageHelper = enabled;
+    }
+
     public static void wait(int ms) {
         try {
             Thread.sleep(ms);
@@ -112,6 +131,18 @@ public class Browser {
         this.betweenScrollTimeout = betweenScrollTimeout;
     }
 
+    /**
+     * @param scrollOverlap pixels shared by neighbouring tiles of scrolled captures, 0 by default.
+     *                      Some overlap hides seams left by content changing slightly between tiles, e.g. sticky headers.
+     *                      Reduced to less than the tile size for tiles not larger than it
+     */
+    public void setScrollOverlap(int scrollOverlap) {
+        if (scrollOverlap < 0) {
+            throw new IllegalArgumentException("Overlap must not be negative: " + scrollOverlap);
+        }
+        this.scrollOverlap = scrollOverlap;
+    }
+
     public void setBeforeShootTimeout(int beforeShootTimeout) {
         this.beforeShootTimeout = beforeShootTimeout;
     }
@@ -122,18 +153,18 @@ public class Browser {
 
     public BufferedImage takeScreenshot() {
         wait(beforeShootCondition, beforeShootTimeout);
-        File srcFile = ((TakesScreenshot) this.getUnderlyingDriver()).getScreenshotAs(OutputType.FILE);
+        // decoded from memory, the driver writes no temporary file for bytes
+        byte[] screenshot = ((TakesScreenshot) this.getUnderlyingDriver()).getScreenshotAs(OutputType.BYTES);
+        BufferedImage image;
         try {
-            return ImageIO.read(srcFile);
+            image = ImageProcessor.readCanonical(screenshot);
         } catch (IOException e) {
             throw new UnableTakeSnapshotException(e);
-        } finally {
-            // add this to clean up leaving this file in the temporary directory forever...
-            if (srcFile.exists()) {
-                srcFile.delete();
-            }
         }
-
+        if (image == null) {
+            throw new UnableTakeSnapshotException("Unable to decode the screenshot");
+        }
+        return image;
     }
 
     /**
@@ -203,102 +234,39 @@ public class Browser {
     }
 
     public BufferedImage takeFullPageScreenshotScroll(Coordinates coordinates) {
-        final int docWidth = this.getDocWidth();
-        final int docHeight = this.getDocHeight();
-        BufferedImage combinedImage = new BufferedImage(docWidth, docHeight,
-                BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = combinedImage.createGraphics();
-        int viewportWidth = this.getViewportWidth();
-        int viewportHeight = this.getViewportHeight();
-        final int scrollBarMaxWidth = getDocScrollBarWidth();
-
-        if (viewportWidth < docWidth || (viewportHeight < docHeight && viewportWidth - scrollBarMaxWidth < docWidth))
-            viewportHeight -= scrollBarMaxWidth;
-        if (viewportHeight < docHeight)
-            viewportWidth -= scrollBarMaxWidth;
-
-        int horizontalIterations = (int) Math.ceil(((double) docWidth) / viewportWidth);
-        int verticalIterations = (int) Math.ceil(((double) docHeight) / viewportHeight);
-        wait(beforeShootCondition, beforeShootTimeout);
-        outer_loop:
-        for (int j = 0; j < verticalIterations; j++) {
-            this.scrollTo(0, j * viewportHeight);
-            for (int i = 0; i < horizontalIterations; i++) {
-                this.scrollTo(i * viewportWidth, viewportHeight * j);
-                wait(betweenScrollTimeout);
-                BufferedImage image = takeScreenshot();
-                if (coordinates != null) {
-                    image = image.getSubimage(coordinates.getX(),
-                            coordinates.getY(),
-                            coordinates.getWidth(), coordinates.getHeight());
-                }
-                g.drawImage(image, this.getCurrentScrollX(),
-                        this.getCurrentScrollY(), null);
-                if (docWidth == image.getWidth(null) && docHeight == image.getHeight(null)) {
-                    break outer_loop;
-                }
-            }
-        }
-        g.dispose();
-        return combinedImage;
+        return takeFullPageScreenshotScroll(coordinates, true, true);
     }
 
     public BufferedImage takeFullPageHorizontalScreenshotScroll(Coordinates coordinates) {
-        final int docWidth = this.getDocWidth();
-        final int docHeight = this.getDocHeight();
-        int viewportWidth = this.getViewportWidth();
-        int viewportHeight = this.getViewportHeight();
-        final int scrollBarMaxWidth = getDocScrollBarWidth();
-
-        if (viewportWidth < docWidth || (viewportHeight < docHeight && viewportWidth - scrollBarMaxWidth < docWidth)) {
-            viewportHeight -= scrollBarMaxWidth;
-        }
-        if (viewportHeight < docHeight) {
-            viewportWidth -= scrollBarMaxWidth;
-        }
-        BufferedImage combinedImage = new BufferedImage(docWidth, viewportHeight,
-                BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = combinedImage.createGraphics();
-        int horizontalIterations =
-                (int) Math.ceil(((double) docWidth) / viewportWidth);
-        for (int i = 0; i < horizontalIterations; i++) {
-            this.scrollTo(i * viewportWidth, getCurrentScrollY());
-            wait(betweenScrollTimeout);
-            BufferedImage image = takeScreenshot();
-            if (coordinates != null) {
-                image = image.getSubimage(coordinates.getX(),
-                        coordinates.getY(),
-                        coordinates.getWidth(), coordinates.getHeight());
-            }
-            g.drawImage(image, i * viewportWidth, 0, null);
-            if (this.getDocWidth() == image.getWidth(null)) {
-                break;
-            }
-        }
-        g.dispose();
-        return combinedImage;
+        return takeFullPageScreenshotScroll(coordinates, true, false);
     }
 
     public BufferedImage takeFullPageVerticalScreenshotScroll(Coordinates coordinates) {
-        final int docWidth = this.getDocWidth();
-        final int docHeight = this.getDocHeight();
-        int viewportWidth = this.getViewportWidth();
-        int viewportHeight = this.getViewportHeight();
-        final int scrollBarMaxWidth = getDocScrollBarWidth();
+        return takeFullPageScreenshotScroll(coordinates, false, true);
+    }
 
-        if (viewportWidth < docWidth || (viewportHeight < docHeight && viewportWidth - scrollBarMaxWidth < docWidth)) {
-            viewportHeight -= scrollBarMaxWidth;
-        }
-        if (viewportHeight < docHeight) {
-            viewportWidth -= scrollBarMaxWidth;
-        }
-        BufferedImage combinedImage = new BufferedImage(viewportWidth, docHeight,
-                BufferedImage.TYPE_INT_ARGB);
+    /**
+     * Capture the page tile by tile following a {@link ScrollPlan} over the area of the viewport
+     * not covered by scrollbars, planning again if the document grows while scrolling.
+     */
+    private BufferedImage takeFullPageScreenshotScroll(Coordinates coordinates, boolean horizontal, boolean vertical) {
+        Dimension client = this.getViewportClientSize();
+        int tileWidth = coordinates != null ? Math.min(client.getWidth(), coordinates.getWidth()) : client.getWidth();
+        int tileHeight = coordinates != null ? Math.min(client.getHeight(), coordinates.getHeight()) : client.getHeight();
+        int width = horizontal ? Math.max(this.getDocWidth(), tileWidth) : tileWidth;
+        int height = vertical ? Math.max(this.getDocHeight(), tileHeight) : tileHeight;
+        if (tileWidth <= 0 || tileHeight <= 0) {
+            return emptyCapture(width, height);
+        }
+        BufferedImage combinedImage = ImageProcessor.createCanonicalImage(width, height);
         Graphics2D g = combinedImage.createGraphics();
-        int verticalIterations =
-                (int) Math.ceil(((double) docHeight) / viewportHeight);
-        for (int j = 0; j < verticalIterations; j++) {
-            this.scrollTo(getCurrentScrollX(), j * viewportHeight);
+        ScrollSchedule schedule = new ScrollSchedule(width, height, tileWidth, tileHeight,
+                ScrollPlan.fitOverlap(scrollOverlap, tileWidth, tileHeight), MAX_REPLANS);
+        if (horizontal && vertical) {
+            wait(beforeShootCondition, beforeShootTimeout);
+        }
+        for (Point offset = schedule.next(); offset != null; offset = schedule.next()) {
+            ScrollPosition position = this.scrollAndMeasure(horizontal ? offset.getX() : null, vertical ? offset.getY() : null);
             wait(betweenScrollTimeout);
             BufferedImage image = takeScreenshot();
             if (coordinates != null) {
@@ -306,9 +274,16 @@ public class Browser {
                         coordinates.getY(),
                         coordinates.getWidth(), coordinates.getHeight());
             }
-            g.drawImage(image, 0, j * viewportHeight, null);
-            if (this.getDocHeight() == image.getHeight(null)) {
-                break;
+            image = image.getSubimage(0, 0, Math.min(tileWidth, image.getWidth()), Math.min(tileHeight, image.getHeight()));
+            int x = horizontal ? position.getX() : 0;
+            int y = vertical ? position.getY() : 0;
+            schedule.captured(new Rectangle(x, y, image.getWidth(), image.getHeight()));
+            drawTile(g, image, x, y);
+            // the document may grow while scrolling, e.g. by lazy loading
+            if (schedule.grow(horizontal ? position.getScrollableWidth() : width, vertical ? position.getScrollableHeight() : height)) {
+                g.dispose();
+                combinedImage = grow(combinedImage, schedule.getWidth(), schedule.getHeight());
+                g = combinedImage.createGraphics();
             }
         }
         g.dispose();
@@ -316,249 +291,34 @@ public class Browser {
     }
 
     public BufferedImage takeFullElementScreenshotScroll(WebElement element) {
-        Coordinates coordinates = getCoordinates(element);
-        final int scrollableHeight = coordinates.getScrollHeight();
-        final int scrollableWidth = coordinates.getScrollWidth();
-        int elementWidth = coordinates.getWidth();
-        int elementHeight = coordinates.getHeight();
-        final int scrollBarMaxWidth = getElementScrollBarWidth(element);
-        final int scrollBarMaxHeight = getElementScrollBarHeight(element);
-
-
-        if (elementWidth < scrollableWidth || (elementHeight < scrollableHeight && elementWidth - scrollBarMaxHeight < scrollableWidth)) {
-            elementHeight -= scrollBarMaxHeight;
-        }
-        if (elementHeight < scrollableHeight) {
-            elementWidth -= scrollBarMaxWidth;
-        }
-        BufferedImage combinedImage = new BufferedImage(scrollableWidth,
-                scrollableHeight,
-                BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = combinedImage.createGraphics();
-
-        int horizontalIterations =
-                (int) Math.ceil((double) scrollableWidth / elementWidth);
-        int verticalIterations = (int) Math.ceil((double) scrollableHeight / elementHeight);
-        wait(beforeShootCondition, beforeShootTimeout);
-        outer_loop:
-        for (int j = 0; j < verticalIterations; j++) {
-
-            this.scrollElement(element, 0,
-                    j *
-                            elementHeight);
-            for (int i = 0; i < horizontalIterations; i++) {
-                this.scrollElement(element,
-                        i *
-                                elementWidth, j *
-                                elementHeight);
-                wait(betweenScrollTimeout);
-                BufferedImage image = takeFullPageElementScreenshot();
-                image = image.getSubimage(coordinates.getAbsoluteX(),
-                        coordinates.getAbsoluteY(),
-                        elementWidth,
-                        elementHeight);
-                g.drawImage(image, this.getElementCurrentScrollX(element),
-                        this.getElementCurrentScrollY(element), null);
-                if (scrollableWidth == image.getWidth(null) && scrollableHeight == image.getHeight(null)) {
-                    break outer_loop;
-                }
-            }
-        }
-        g.dispose();
-        return combinedImage;
+        return takeFullElementScreenshotScroll(element, true, true);
     }
 
     public BufferedImage takeFullElementScreenshotScroll(By element) {
-        Coordinates coordinates = getCoordinates(element);
-        final int scrollableHeight = coordinates.getScrollHeight();
-        final int scrollableWidth = coordinates.getScrollWidth();
-        int elementWidth = coordinates.getWidth();
-        int elementHeight = coordinates.getHeight();
-        final int scrollBarMaxWidth = getElementScrollBarWidth(element);
-        final int scrollBarMaxHeight = getElementScrollBarHeight(element);
-
-
-        if (elementWidth < scrollableWidth || (elementHeight < scrollableHeight && elementWidth - scrollBarMaxHeight < scrollableWidth)) {
-            elementHeight -= scrollBarMaxHeight;
-        }
-        if (elementHeight < scrollableHeight) {
-            elementWidth -= scrollBarMaxWidth;
-        }
-        BufferedImage combinedImage = new BufferedImage(scrollableWidth,
-                scrollableHeight,
-                BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = combinedImage.createGraphics();
-
-        int horizontalIterations =
-                (int) Math.ceil((double) scrollableWidth / elementWidth);
-        int verticalIterations = (int) Math.ceil((double) scrollableHeight / elementHeight);
-        wait(beforeShootCondition, beforeShootTimeout);
-        outer_loop:
-        for (int j = 0; j < verticalIterations; j++) {
-
-            this.scrollElement(element, 0,
-                    j *
-                            elementHeight);
-            for (int i = 0; i < horizontalIterations; i++) {
-                this.scrollElement(element,
-                        i *
-                                elementWidth, j *
-                                elementHeight);
-                wait(betweenScrollTimeout);
-                BufferedImage image = takeFullPageElementScreenshot();
-                image = image.getSubimage(coordinates.getAbsoluteX(),
-                        coordinates.getAbsoluteY(),
-                        elementWidth,
-                        elementHeight);
-                g.drawImage(image, this.getElementCurrentScrollX(element),
-                        this.getElementCurrentScrollY(element), null);
-                if (scrollableWidth == image.getWidth(null) && scrollableHeight == image.getHeight(null)) {
-                    break outer_loop;
-                }
-            }
-        }
-        g.dispose();
-        return combinedImage;
+        return takeFullElementScreenshotScroll(driver.findElement(element));
     }
 
     public BufferedImage takeFullElementVerticalScreenshotScroll(WebElement element) {
-        Coordinates coordinates = getCoordinates(element);
-
-        final int scrollableHeight = coordinates.getScrollHeight();
-        final int scrollableWidth = coordinates.getScrollWidth();
-        int elementWidth = coordinates.getWidth();
-        int elementHeight = coordinates.getHeight();
-        final int scrollBarMaxWidth = getElementScrollBarWidth(element);
-        final int scrollBarMaxHeight = getElementScrollBarHeight(element);
-
-
-        if (elementWidth < scrollableWidth || (elementHeight < scrollableHeight && elementWidth - scrollBarMaxHeight < scrollableWidth)) {
-            elementHeight -= scrollBarMaxHeight;
-        }
-        if (elementHeight < scrollableHeight) {
-            elementWidth -= scrollBarMaxWidth;
-        }
-        BufferedImage combinedImage = new BufferedImage(elementWidth,
-                scrollableHeight,
-                BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = combinedImage.createGraphics();
-
-        int verticalIterations =
-                (int) Math.ceil(((double) scrollableHeight) / elementHeight);
-        BufferedImage image;
-        for (int j = 0; j < verticalIterations; j++) {
-            this.scrollElement(element, getElementCurrentScrollX(element),
-                    j *
-                            elementHeight);
-            wait(betweenScrollTimeout);
-            image = takeFullPageElementScreenshot();
-            image = image.getSubimage(coordinates.getAbsoluteX(),
-                    coordinates.getAbsoluteY(),
-                    elementWidth,
-                    elementHeight);
-
-            g.drawImage(image, 0, getElementCurrentScrollY(element),
-                    null);
-            if (scrollableHeight == image.getHeight(null)) {
-                break;
-            }
-        }
-        g.dispose();
-        return combinedImage;
+        return takeFullElementScreenshotScroll(element, false, true);
     }
 
     public BufferedImage takeFullElementVerticalScreenshotScroll(By element) {
-        Coordinates coordinates = getCoordinates(element);
-
-        final int scrollableHeight = coordinates.getScrollHeight();
-        final int scrollableWidth = coordinates.getScrollWidth();
-        int elementWidth = coordinates.getWidth();
-        int elementHeight = coordinates.getHeight();
-        final int scrollBarMaxWidth = getElementScrollBarWidth(element);
-        final int scrollBarMaxHeight = getElementScrollBarHeight(element);
-
-
-        if (elementWidth < scrollableWidth || (elementHeight < scrollableHeight && elementWidth - scrollBarMaxHeight < scrollableWidth)) {
-            elementHeight -= scrollBarMaxHeight;
-        }
-        if (elementHeight < scrollableHeight) {
-            elementWidth -= scrollBarMaxWidth;
-        }
-        BufferedImage combinedImage = new BufferedImage(elementWidth,
-                scrollableHeight,
-                BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = combinedImage.createGraphics();
-
-        int verticalIterations =
-                (int) Math.ceil(((double) scrollableHeight) / elementHeight);
-        BufferedImage image;
-        for (int j = 0; j < verticalIterations; j++) {
-            this.scrollElement(element, getElementCurrentScrollX(element),
-                    j *
-                            elementHeight);
-            wait(betweenScrollTimeout);
-            image = takeFullPageElementScreenshot();
-            image = image.getSubimage(coordinates.getAbsoluteX(),
-                    coordinates.getAbsoluteY(),
-                    elementWidth,
-                    elementHeight);
-
-            g.drawImage(image, 0, getElementCurrentScrollY(element),
-                    null);
-            if (scrollableHeight == image.getHeight(null)) {
-                break;
-            }
-        }
-        g.dispose();
-        return combinedImage;
+        return takeFullElementVerticalScreenshotScroll(driver.findElement(element));
     }
 
     public BufferedImage takeFullElementHorizontalScreenshotScroll(WebElement element) {
-        Coordinates coordinates = getCoordinates(element);
-        final int scrollableHeight = coordinates.getScrollHeight();
-        final int scrollableWidth = coordinates.getScrollWidth();
-        int elementWidth = coordinates.getWidth();
-        int elementHeight = coordinates.getHeight();
-        final int scrollBarMaxWidth = getElementScrollBarWidth(element);
-        final int scrollBarMaxHeight = getElementScrollBarHeight(element);
-
-
-        if (elementWidth < scrollableWidth || (elementHeight < scrollableHeight && elementWidth - scrollBarMaxHeight < scrollableWidth)) {
-            elementHeight -= scrollBarMaxHeight;
-        }
-        if (elementHeight < scrollableHeight) {
-            elementWidth -= scrollBarMaxWidth;
-        }
-        BufferedImage combinedImage = new BufferedImage(scrollableWidth,
-                elementHeight,
-                BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = combinedImage.createGraphics();
-
-        int horizontalIterations =
-                (int) Math.ceil(((double) scrollableWidth) / elementWidth);
-        BufferedImage image;
-        for (int j = 0; j < horizontalIterations; j++) {
-            this.scrollElement(element,
-                    j *
-                            elementWidth, getElementCurrentScrollY(element));
-            wait(betweenScrollTimeout);
-            image = takeFullPageElementScreenshot();
-            image = image.getSubimage(coordinates.getAbsoluteX(),
-                    coordinates.getAbsoluteY(),
-                    elementWidth,
-                    elementHeight);
-
-            g.drawImage(image, getElementCurrentScrollX(element), 0,
-                    null);
-            if (scrollableWidth == image.getWidth(null)) {
-                break;
-            }
-        }
-        g.dispose();
-        return combinedImage;
+        return takeFullElementScreenshotScroll(element, true, false);
     }
 
     public BufferedImage takeFullElementHorizontalScreenshotScroll(By element) {
+        return takeFullElementHorizontalScreenshotScroll(driver.findElement(element));
+    }
+
+    /**
+     * Capture the content of the element tile by tile following a {@link ScrollPlan}
+     * over the area of the element not covered by its scrollbars.
+     */
+    private BufferedImage takeFullElementScreenshotScroll(WebElement element, boolean horizontal, boolean vertical) {
         Coordinates coordinates = getCoordinates(element);
         final int scrollableHeight = coordinates.getScrollHeight();
         final int scrollableWidth = coordinates.getScrollWidth();
@@ -574,30 +334,29 @@ public class Browser {
         if (elementHeight < scrollableHeight) {
             elementWidth -= scrollBarMaxWidth;
         }
-        BufferedImage combinedImage = new BufferedImage(scrollableWidth,
-                elementHeight,
-                BufferedImage.TYPE_INT_ARGB);
+        int width = horizontal ? scrollableWidth : elementWidth;
+        int height = vertical ? scrollableHeight : elementHeight;
+        if (elementWidth <= 0 || elementHeight <= 0) {
+            return emptyCapture(width, height);
+        }
+        BufferedImage combinedImage = ImageProcessor.createCanonicalImage(width, height);
         Graphics2D g = combinedImage.createGraphics();
 
-        int horizontalIterations =
-                (int) Math.ceil(((double) scrollableWidth) / elementWidth);
-        BufferedImage image;
-        for (int j = 0; j < horizontalIterations; j++) {
-            this.scrollElement(element,
-                    j *
-                            elementWidth, getElementCurrentScrollY(element));
+        ScrollPlan plan = new ScrollPlan(width, height, elementWidth, elementHeight,
+                ScrollPlan.fitOverlap(scrollOverlap, elementWidth, elementHeight));
+        if (horizontal && vertical) {
+            wait(beforeShootCondition, beforeShootTimeout);
+        }
+        for (Point offset : plan.getOffsets()) {
+            ScrollPosition position = this.scrollElementAndMeasure(element,
+                    horizontal ? offset.getX() : null, vertical ? offset.getY() : null);
             wait(betweenScrollTimeout);
-            image = takeFullPageElementScreenshot();
+            BufferedImage image = takeFullPageElementScreenshot();
             image = image.getSubimage(coordinates.getAbsoluteX(),
                     coordinates.getAbsoluteY(),
                     elementWidth,
                     elementHeight);
-
-            g.drawImage(image, getElementCurrentScrollX(element), 0,
-                    null);
-            if (scrollableWidth == image.getWidth(null)) {
-                break;
-            }
+            drawTile(g, image, horizontal ? position.getX() : 0, vertical ? position.getY() : 0);
         }
         g.dispose();
         return combinedImage;
@@ -618,9 +377,8 @@ public class Browser {
         if (elementHeight < scrollableHeight) {
             elementWidth -= scrollBarMaxWidth;
         }
-        BufferedImage combinedImage = new BufferedImage(elementWidth,
-                elementHeight,
-                BufferedImage.TYPE_INT_ARGB);
+        BufferedImage combinedImage = ImageProcessor.createCanonicalImage(elementWidth,
+                elementHeight);
         Graphics2D g = combinedImage.createGraphics();
         wait(betweenScrollTimeout);
         BufferedImage image = takeFullPageElementScreenshot();
@@ -628,8 +386,7 @@ public class Browser {
                 coordinates.getAbsoluteY(),
                 elementWidth,
                 elementHeight);
-        g.drawImage(image, 0, 0,
-                null);
+        drawTile(g, image, 0, 0);
         g.dispose();
         return combinedImage;
     }
@@ -649,9 +406,8 @@ public class Browser {
         if (elementHeight < scrollableHeight) {
             elementWidth -= scrollBarMaxWidth;
         }
-        BufferedImage combinedImage = new BufferedImage(elementWidth,
-                elementHeight,
-                BufferedImage.TYPE_INT_ARGB);
+        BufferedImage combinedImage = ImageProcessor.createCanonicalImage(elementWidth,
+                elementHeight);
         Graphics2D g = combinedImage.createGraphics();
         wait(betweenScrollTimeout);
         BufferedImage image = takeFullPageElementScreenshot();
@@ -659,8 +415,7 @@ public class Browser {
                 coordinates.getAbsoluteY(),
                 elementWidth,
                 elementHeight);
-        g.drawImage(image, 0, 0,
-                null);
+        drawTile(g, image, 0, 0);
         g.dispose();
         return combinedImage;
     }
@@ -681,9 +436,8 @@ public class Browser {
         if (elementHeight < scrollableHeight) {
             elementWidth -= scrollBarMaxWidth;
         }
-        BufferedImage combinedImage = new BufferedImage(elementWidth,
-                elementHeight,
-                BufferedImage.TYPE_INT_ARGB);
+        BufferedImage combinedImage = ImageProcessor.createCanonicalImage(elementWidth,
+                elementHeight);
         Graphics2D g = combinedImage.createGraphics();
 
 
@@ -697,8 +451,7 @@ public class Browser {
                 elementWidth,
                 elementHeight);
 
-        g.drawImage(image, 0, 0,
-                null);
+        drawTile(g, image, 0, 0);
 
 
         g.dispose();
@@ -717,7 +470,7 @@ public class Browser {
             this.scrollTo(0, j * this.getViewportHeight());
             wait(betweenScrollTimeout);
         }
-        Object metrics = this.evaluate(FileUtil.getJsScript(ALL_METRICS));
+        Object metrics = this.evaluate(ScriptRegistry.getInstance().get(ALL_METRICS));
         this.sendCommand("Emulation.setDeviceMetricsOverride", metrics);
         wait(beforeShootCondition, beforeShootTimeout);
         Object result = this.sendCommand("Page.captureScreenshot", ImmutableMap.of("format", "png", "fromSurface", true));
@@ -754,7 +507,7 @@ public class Browser {
     }
 
     public int getDocScrollBarWidth() {
-        return Math.max((int) (Double.parseDouble(executeJsScript(Browser.DOC_SCROLL_BAR_WIDTH).toString()) * devicePixelRatio), 40);
+        return (int) (Double.parseDouble(executeJsScript(Browser.DOC_SCROLL_BAR_WIDTH).toString()) * devicePixelRatio);
     }
 
     public int getElementScrollBarWidth(WebElement element) {
@@ -818,6 +571,15 @@ public class Browser {
         return viewportHeight;
     }
 
+    /**
+     * @return size of the viewport without its scrollbars
+     */
+    public Dimension getViewportClientSize() {
+        List<Number> size = (List<Number>) executeJsScript(VIEWPORT_CLIENT_SIZE_JS);
+        return new Dimension((int) (size.get(0).doubleValue() * devicePixelRatio),
+                (int) (size.get(1).doubleValue() * devicePixelRatio));
+    }
+
     public Coordinates getCoordinates(WebElement element) {
         ArrayList<String> list = (ArrayList<String>) executeJsScript(RELATIVE_COORDS_JS, element);
         Point currentLocation = new Point(Integer.parseInt(list.get(0)),
@@ -830,6 +592,40 @@ public class Browser {
                 devicePixelRatio);
     }
 
+    public List<Coordinates> getCoordinates(List<WebElement> elements) {
+        if (elements.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return toCoordinates((List<List<Number>>) executeJsScript(ELEMENTS_COORDS_JS, elements), devicePixelRatio);
+    }
+
+    /**
+     * Read the location and size of several elements with a single script call,
+     * instead of two WebDriver calls per element. The script is sent in full.
+     *
+     * @param driver           WebDriver instance
+     * @param elements         elements to locate
+     * @param devicePixelRatio device pixel ratio of the page
+     * @return coordinates of the elements, in the same order, as read by {@link Coordinates#Coordinates(WebElement, Double)}
+     */
+    public static List<Coordinates> getCoordinates(WebDriver driver, List<WebElement> elements, Double devicePixelRatio) {
+        if (elements.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return toCoordinates((List<List<Number>>) executeJsScript(driver, false, ELEMENTS_COORDS_JS, elements), devicePixelRatio);
+    }
+
+    private static List<Coordinates> toCoordinates(List<List<Number>> rects, Double devicePixelRatio) {
+        List<Coordinates> coordinates = new ArrayList<>(rects.size());
+        for (List<Number> rect : rects) {
+            // truncated to whole pixels as by WebElement.getLocation() and getSize()
+            Point location = new Point(rect.get(0).intValue(), rect.get(1).intValue());
+            Dimension size = new Dimension(rect.get(2).intValue(), rect.get(3).intValue());
+            coordinates.add(new Coordinates(location, location, size, size, devicePixelRatio));
+        }
+        return coordinates;
+    }
+
     public Coordinates getCoordinates(By by) {
        return getCoordinates(driver.findElement(by));
     }
@@ -855,6 +651,35 @@ public class Browser {
                 y / devicePixelRatio);
     }
 
+    /**
+     * Scroll the page and read the offsets it ended up at, with the size of the document, in one script call.
+     *
+     * @param x horizontal offset to scroll to, null to keep the current one
+     * @param y vertical offset to scroll to, null to keep the current one
+     * @return offsets after scrolling and size of the document
+     */
+    public ScrollPosition scrollAndMeasure(Integer x, Integer y) {
+        return ScrollPosition.of((List<Number>) executeJsScript(SCROLL_AND_MEASURE_JS, toCssPixels(x), toCssPixels(y)),
+                devicePixelRatio);
+    }
+
+    /**
+     * Scroll the element and read the offsets it ended up at, with the size of its content, in one script call.
+     *
+     * @param element element to scroll
+     * @param x       horizontal offset to scroll to, null to keep the current one
+     * @param y       vertical offset to scroll to, null to keep the current one
+     * @return offsets after scrolling and size of the content of the element
+     */
+    public ScrollPosition scrollElementAndMeasure(WebElement element, Integer x, Integer y) {
+        return ScrollPosition.of((List<Number>) executeJsScript(SCROLL_ELEMENT_AND_MEASURE_JS, element,
+                toCssPixels(x), toCssPixels(y)), devicePixelRatio);
+    }
+
+    private Double toCssPixels(Integer devicePixels) {
+        return devicePixels == null ? null : devicePixels / devicePixelRatio;
+    }
+
     public void scrollElement(WebElement element, int x, int y) {
         executeJsScript(SCROLL_ELEMENT, element, x / devicePixelRatio,
                 y / devicePixelRatio);
@@ -866,10 +691,30 @@ public class Browser {
                 y / devicePixelRatio);
     }
 
+    /**
+     * @param filePath name of a script in the {@link ScriptRegistry}, or its classpath resource path
+     * @param arg      arguments of the script
+     * @return value returned by the script
+     */
     public Object executeJsScript(String filePath, Object... arg) {
-        String script = FileUtil.getJsScript(filePath);
+        return executeJsScript(driver, inPageHelper, filePath, arg);
+    }
+
+    private static Object executeJsScript(WebDriver driver, boolean inPageHelper, String filePath, Object... arg) {
+        ScriptRegistry scripts = ScriptRegistry.getInstance();
         JavascriptExecutor js = (JavascriptExecutor) driver;
-        return js.executeScript(script, arg);
+        if (inPageHelper) {
+            Object result = js.executeScript(scripts.getInvocation(filePath), arg);
+            if (!ScriptRegistry.HELPER_MISSING.equals(result)) {
+                return result;
+            }
+            js.executeScript(scripts.getHelperLibrary());
+            result = js.executeScript(scripts.getInvocation(filePath), arg);
+            if (!ScriptRegistry.HELPER_MISSING.equals(result)) {
+                return result;
+            }
+        }
+        return js.executeScript(scripts.get(filePath), arg);
     }
 
     public Object sendCommand(String cmd, Object params) {
@@ -910,11 +755,36 @@ public class Browser {
         }
     }
 
+    /**
+     * @return blank image of the content size, at least 1x1, when no pixels of the content are visible to capture
+     */
+    private static BufferedImage emptyCapture(int width, int height) {
+        return ImageProcessor.createCanonicalImage(Math.max(width, 1), Math.max(height, 1));
+    }
+
+    /**
+     * @return canvas of the given size holding the content of the smaller one, which goes back to the pool
+     */
+    private static BufferedImage grow(BufferedImage canvas, int width, int height) {
+        BufferedImage grown = ImageProcessor.createCanonicalImage(width, height);
+        Graphics2D g = grown.createGraphics();
+        drawTile(g, canvas, 0, 0);
+        g.dispose();
+        return grown;
+    }
+
+    /**
+     * Draw a captured tile on the combined image and give the tile back to the pool.
+     */
+    private static void drawTile(Graphics2D g, BufferedImage tile, int x, int y) {
+        g.drawImage(tile, x, y, null);
+        ImagePool.getInstance().release(tile);
+    }
+
     private BufferedImage decodeBase64EncodedPng(String base64EncodedPng) {
-        InputStream in = new ByteArrayInputStream(OutputType.BYTES.convertFromBase64Png(base64EncodedPng));
         BufferedImage bImageFromConvert;
         try {
-            bImageFromConvert = ImageIO.read(in);
+            bImageFromConvert = ImageProcessor.readCanonical(OutputType.BYTES.convertFromBase64Png(base64EncodedPng));
         } catch (IOException e) {
             throw new RuntimeException("Error while converting results from bytes to BufferedImage");
         }
@@ -0,0 +1,173 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.web;
+
+import com.assertthat.selenium_shutterbug.utils.file.FileUtil;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Process-wide registry of the JavaScript executed in the browser, so that scripts are read
+ * from the classpath once instead of on every scroll and measurement.
+ * <p>
+ * The scripts bundled under js/ are loaded and checked when the registry is first used, and cannot be replaced.
+ * Other scripts are added with {@link #register(String, String)}, or loaded from the classpath
+ * the first time they are asked for by resource path.
+ * <p>
+ * All the scripts can also be installed in the page at once as functions of a window.__shutterbug
+ * helper object (see {@link #getHelperLibrary()}), after which only a short invocation of the helper
+ * (see {@link #getInvocation(String)}) has to be sent for every call.
+ */
+public final class ScriptRegistry {
+
+    private static final String[] BUNDLED = {
+            "js/all-metrics.js",
+            "js/doc-scrollbar-width.js",
+            "js/element-scrollbar-height.js",
+            "js/element-scrollbar-width.js",
+            "js/elements-coords.js",
+            "js/get-current-element-scrollX.js",
+            "js/get-current-element-scrollY.js",
+            "js/get-current-scrollX.js",
+            "js/get-current-scrollY.js",
+            "js/get-device-pixel-ratio.js",
+            "js/max-document-height.js",
+            "js/max-document-width.js",
+            "js/relative-element-coords.js",
+            "js/scroll-and-measure.js",
+            "js/scroll-by.js",
+            "js/scroll-element-into-view-vertical-centered.js",
+            "js/scroll-element-and-measure.js",
+            "js/scroll-element-into-view.js",
+            "js/scroll-element.js",
+            "js/scroll-to.js",
+            "js/viewport-client-size.js",
+            "js/viewport-height.js",
+            "js/viewport-width.js"
+    };
+
+    /**
+     * Returned by an invocation when the helper object is missing from the page, e.g. after navigation,
+     * or holds another set of scripts. Nothing is executed in that case.
+     */
+    public static final String HELPER_MISSING = "__shutterbug_missing__";
+
+    private static final ScriptRegistry INSTANCE = new ScriptRegistry();
+
+    private final Map<String, String> bundled;
+    private final Map<String, String> registered = new ConcurrentHashMap<>();
+    // changed whenever a script is added, so that pages holding an older helper get the new one
+    private final AtomicInteger generation = new AtomicInteger();
+    private String helperLibrary;
+    private int helperGeneration = -1;
+
+    ScriptRegistry() {
+        Map<String, String> scripts = new HashMap<>();
+        for (String name : BUNDLED) {
+            scripts.put(name, checked(name, FileUtil.getJsScript(name)));
+        }
+        this.bundled = Collections.unmodifiableMap(scripts);
+    }
+
+    /**
+     * @return the process-wide registry
+     */
+    public static ScriptRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param name name the script was registered with, or its classpath resource path
+     * @return source of the script
+     * @throws UnableTakeSnapshotException if there is no such script
+     */
+    public String get(String name) {
+        String script = bundled.get(name);
+        if (script != null) {
+            return script;
+        }
+        return registered.computeIfAbsent(name, path -> {
+            String loaded = checked(path, FileUtil.getJsScript(path));
+            generation.incrementAndGet();
+            return loaded;
+        });
+    }
+
+    /**
+     * Add a script to be executed with {@link Browser#executeJsScript(String, Object...)} under the given name.
+     *
+     * @param name   name of the script, replacing a script registered before with the same name
+     * @param script source of the script
+     * @throws IllegalArgumentException if the script is empty or the name is one of a bundled script
+     */
+    public void register(String name, String script) {
+        if (bundled.containsKey(name)) {
+            throw new IllegalArgumentException("Bundled script cannot be replaced: " + name);
+        }
+        if (script == null || script.trim().isEmpty()) {
+            throw new IllegalArgumentException("Script is empty: " + name);
+        }
+        registered.put(name, script);
+        generation.incrementAndGet();
+    }
+
+    /**
+     * @param name name of the script
+     * @return true if the script is bundled or registered
+     */
+    public boolean contains(String name) {
+        return bundled.containsKey(name) || registered.containsKey(name);
+    }
+
+    /**
+     * @return script defining window.__shutterbug with a function for every script of the registry
+     */
+    public synchronized String getHelperLibrary() {
+        int current = generation.get();
+        if (helperLibrary == null || helperGeneration != current) {
+            StringBuilder library = new StringBuilder("window.__shutterbug = {\n    generation: ").append(current);
+            appendFunctions(library, bundled);
+            appendFunctions(library, registered);
+            helperLibrary = library.append("\n};").toString();
+            helperGeneration = current;
+        }
+        return helperLibrary;
+    }
+
+    /**
+     * @param name name the script was registered with, or its classpath resource path
+     * @return script calling the helper function of the script with the arguments it is executed with,
+     * or returning {@link #HELPER_MISSING} if the page does not hold the current helper object
+     */
+    public String getInvocation(String name) {
+        get(name);
+        return "var h = window.__shutterbug;\n"
+                + "if (!h || h.generation !== " + generation.get() + ") return '" + HELPER_MISSING + "';\n"
+                + "return h[" + quote(name) + "].apply(null, arguments);";
+    }
+
+    private static void appendFunctions(StringBuilder library, Map<String, String> scripts) {
+        for (Map.Entry<String, String> script : scripts.entrySet()) {
+            library.append(",\n    ").append(quote(script.getKey())).append(": function () {\n")
+                    .append(script.getValue()).append("\n    }");
+        }
+    }
+
+    private static String quote(String name) {
+        return "'" + name.replace("\\", "\\\\").replace("'", "\\'") + "'";
+    }
+
+    private static String checked(String name, String script) {
+        if (script.trim().isEmpty()) {
+            throw new UnableTakeSnapshotException("JS script is empty: " + name);
+        }
+        return script;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.web;
+
+import org.openqa.selenium.Point;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Scroll offsets at which to capture the tiles of scrollable content, computed up front.
+ * <p>
+ * Along each axis tiles are placed every (tile size - overlap) pixels, and the last tile is placed
+ * exactly at the end of the content instead of past it, so no more tiles are captured than needed to cover it.
+ * Rows are visited in serpentine order, left to right then right to left, so moving to the next row
+ * scrolls only vertically.
+ */
+public final class ScrollPlan {
+
+    private final int tileWidth;
+    private final int tileHeight;
+    private final List<Point> offsets;
+
+    /**
+     * @param contentWidth  width of the content to cover
+     * @param contentHeight height of the content to cover
+     * @param tileWidth     width of the visible part of the content at a time
+     * @param tileHeight    height of the visible part of the content at a time
+     * @param overlap       pixels shared by neighbouring tiles, less than the tile size
+     * @throws IllegalArgumentException if the tile size is not positive or the overlap is not less than it
+     */
+    public ScrollPlan(int contentWidth, int contentHeight, int tileWidth, int tileHeight, int overlap) {
+        if (tileWidth <= 0 || tileHeight <= 0) {
+            throw new IllegalArgumentException("Tile size must be positive: " + tileWidth + "x" + tileHeight);
+        }
+        if (overlap < 0 || overlap >= tileWidth || overlap >= tileHeight) {
+            throw new IllegalArgumentException("Overlap must be from 0 to less than the tile size "
+                    + tileWidth + "x" + tileHeight + ": " + overlap);
+        }
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        List<Integer> columns = offsets(contentWidth, tileWidth, overlap);
+        List<Integer> rows = offsets(contentHeight, tileHeight, overlap);
+        List<Point> offsets = new ArrayList<>(columns.size() * rows.size());
+        for (int row = 0; row < rows.size(); row++) {
+            for (int column = 0; column < columns.size(); column++) {
+                int x = columns.get(row % 2 == 0 ? column : columns.size() - 1 - column);
+                offsets.add(new Point(x, rows.get(row)));
+            }
+        }
+        this.offsets = Collections.unmodifiableList(offsets);
+    }
+
+    /**
+     * @param overlap    requested overlap of neighbouring tiles
+     * @param tileWidth  width of the tiles, positive
+     * @param tileHeight height of the tiles, positive
+     * @return the overlap reduced to less than the tile size, so that tiles smaller than it can still be planned
+     */
+    static int fitOverlap(int overlap, int tileWidth, int tileHeight) {
+        return Math.max(0, Math.min(overlap, Math.min(tileWidth, tileHeight) - 1));
+    }
+
+    private static List<Integer> offsets(int content, int tile, int overlap) {
+        List<Integer> offsets = new ArrayList<>();
+        int last = Math.max(0, content - tile);
+        int step = tile - overlap;
+        for (int offset = 0; offset < last; offset += step) {
+            offsets.add(offset);
+        }
+        offsets.add(last);
+        return offsets;
+    }
+
+    /**
+     * @return scroll offsets of the tiles, in the order to capture them
+     */
+    public List<Point> getOffsets() {
+        return offsets;
+    }
+
+    public int size() {
+        return offsets.size();
+    }
+
+    public int getTileWidth() {
+        return tileWidth;
+    }
+
+    public int getTileHeight() {
+        return tileHeight;
+    }
+}
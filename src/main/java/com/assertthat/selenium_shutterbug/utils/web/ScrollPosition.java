@@ -0,0 +1,60 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.web;
+
+import java.util.List;
+
+/**
+ * Scroll offsets of the page or of an element, read right after scrolling
+ * together with the size of the scrollable content, in device pixels.
+ */
+public final class ScrollPosition {
+
+    private final int x;
+    private final int y;
+    private final int scrollableWidth;
+    private final int scrollableHeight;
+
+    ScrollPosition(int x, int y, int scrollableWidth, int scrollableHeight) {
+        this.x = x;
+        this.y = y;
+        this.scrollableWidth = scrollableWidth;
+        this.scrollableHeight = scrollableHeight;
+    }
+
+    /**
+     * @param measured         offsets and content size as returned by the scroll script, in CSS pixels
+     * @param devicePixelRatio device pixel ratio of the page
+     */
+    static ScrollPosition of(List<Number> measured, Double devicePixelRatio) {
+        return new ScrollPosition((int) (measured.get(0).doubleValue() * devicePixelRatio),
+                (int) (measured.get(1).doubleValue() * devicePixelRatio),
+                (int) (measured.get(2).doubleValue() * devicePixelRatio),
+                (int) (measured.get(3).doubleValue() * devicePixelRatio));
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * @return width of the document, or of the content of the element
+     */
+    public int getScrollableWidth() {
+        return scrollableWidth;
+    }
+
+    /**
+     * @return height of the document, or of the content of the element
+     */
+    public int getScrollableHeight() {
+        return scrollableHeight;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.web;
+
+import org.openqa.selenium.Point;
+
+import java.awt.Rectangle;
+import java.awt.geom.Area;
+
+/**
+ * Tiles still to capture while executing a {@link ScrollPlan} over content that may grow meanwhile.
+ * <p>
+ * When the content grows, the plan is made again for the new size and tiles within the area
+ * captured so far are skipped. Planning again is limited, so content that keeps growing
+ * (e.g. infinite scrolling) is still captured in a bounded number of tiles.
+ */
+final class ScrollSchedule {
+
+    private final int tileWidth;
+    private final int tileHeight;
+    private final int overlap;
+    private final int maxReplans;
+    private final Area captured = new Area();
+    private ScrollPlan plan;
+    private int next;
+    private int replans;
+    private int width;
+    private int height;
+
+    /**
+     * @param width      width of the content to cover
+     * @param height     height of the content to cover
+     * @param tileWidth  width of the visible part of the content at a time
+     * @param tileHeight height of the visible part of the content at a time
+     * @param overlap    pixels shared by neighbouring tiles, less than the tile size
+     * @param maxReplans times the plan is made again for grown content at most
+     */
+    ScrollSchedule(int width, int height, int tileWidth, int tileHeight, int overlap, int maxReplans) {
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.overlap = overlap;
+        this.maxReplans = maxReplans;
+        this.width = width;
+        this.height = height;
+        this.plan = new ScrollPlan(width, height, tileWidth, tileHeight, overlap);
+    }
+
+    /**
+     * @return offset of the next tile to capture, null when the content is covered
+     */
+    Point next() {
+        while (next < plan.size()) {
+            Point offset = plan.getOffsets().get(next++);
+            if (!captured.contains(offset.getX(), offset.getY(), tileWidth, tileHeight)) {
+                return offset;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param tile area of the content captured, at the offset actually scrolled to
+     */
+    void captured(Rectangle tile) {
+        captured.add(new Area(tile));
+    }
+
+    /**
+     * @param width  width of the content as measured after scrolling
+     * @param height height of the content as measured after scrolling
+     * @return true if the content grew and the remaining tiles were planned again for its new size
+     */
+    boolean grow(int width, int height) {
+        if (width <= this.width && height <= this.height || replans >= maxReplans) {
+            return false;
+        }
+        this.width = Math.max(this.width, width);
+        this.height = Math.max(this.height, height);
+        plan = new ScrollPlan(this.width, this.height, tileWidth, tileHeight, overlap);
+        next = 0;
+        replans++;
+        return true;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+}
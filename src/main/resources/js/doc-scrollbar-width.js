@@ -1 +1 @@
-return document.body.offsetWidth - document.body.clientWidth
\ No newline at end of file
+return window.innerWidth - (document.documentElement.clientWidth || window.innerWidth)
\ No newline at end of file
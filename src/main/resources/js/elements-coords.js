@@ -0,0 +1,6 @@
+var coords = [];
+for (var i = 0; i < arguments[0].length; i++) {
+    var rect = arguments[0][i].getBoundingClientRect();
+    coords.push([rect.left + window.pageXOffset, rect.top + window.pageYOffset, rect.width, rect.height]);
+}
+return coords;
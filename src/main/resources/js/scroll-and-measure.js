@@ -0,0 +1,9 @@
+var root = document.documentElement, body = document.body;
+var left = arguments[0] == null ? Math.max(root.scrollLeft, body.scrollLeft) : arguments[0];
+var top = arguments[1] == null ? Math.max(root.scrollTop, body.scrollTop) : arguments[1];
+// instant, so that the offsets read below are the final ones even with smooth scrolling
+if ('scrollBehavior' in root.style) window.scrollTo({left: left, top: top, behavior: 'instant'});
+else window.scrollTo(left, top);
+return [Math.round(Math.max(root.scrollLeft, body.scrollLeft)), Math.round(Math.max(root.scrollTop, body.scrollTop)),
+    Math.max(body.scrollWidth, body.offsetWidth, root.clientWidth, root.scrollWidth, root.offsetWidth),
+    Math.max(body.scrollHeight, body.offsetHeight, root.clientHeight, root.scrollHeight, root.offsetHeight)];
@@ -0,0 +1,10 @@
+var element = arguments[0];
+var left = arguments[1] == null ? element.scrollLeft : arguments[1];
+var top = arguments[2] == null ? element.scrollTop : arguments[2];
+// instant, so that the offsets read below are the final ones even with smooth scrolling
+if (element.scrollTo && 'scrollBehavior' in element.style) element.scrollTo({left: left, top: top, behavior: 'instant'});
+else {
+    element.scrollLeft = left;
+    element.scrollTop = top;
+}
+return [element.scrollLeft, element.scrollTop, element.scrollWidth, element.scrollHeight];
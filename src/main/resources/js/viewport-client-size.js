@@ -0,0 +1,2 @@
+var root = document.documentElement;
+return [root.clientWidth || document.body.clientWidth, root.clientHeight || document.body.clientHeight];
@@ -0,0 +1,207 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.core;
+
+import com.assertthat.selenium_shutterbug.utils.image.BoxBlur;
+import com.assertthat.selenium_shutterbug.utils.image.ImageProcessor;
+import com.assertthat.selenium_shutterbug.utils.web.Coordinates;
+import org.junit.Test;
+import org.openqa.selenium.Dimension;
+import org.openqa.selenium.Point;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.RasterFormatException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OperationPipelineTest {
+
+    @Test
+    public void testMixedOverlappingOperations() {
+        BufferedImage immediate = noise(200, 150, 1);
+        BufferedImage source = copy(immediate);
+        OperationPipeline pipeline = new OperationPipeline(200, 150);
+
+        ImageProcessor.blurArea(immediate, coords(10, 10, 80, 60));
+        pipeline.blur(new Rectangle(10, 10, 80, 60));
+        ImageProcessor.highlight(immediate, coords(50, 30, 70, 50), Color.red, 4);
+        pipeline.highlight(new Rectangle(50, 30, 70, 50), Color.red, 4);
+        ImageProcessor.monochromeArea(immediate, coords(40, 20, 100, 40));
+        pipeline.monochrome(new Rectangle(40, 20, 100, 40));
+        ImageProcessor.cutOut(immediate, coords(100, 50, 30, 30), 0, 0);
+        pipeline.cutOut(new Rectangle(100, 50, 30, 30));
+        ImageProcessor.blurArea(immediate, coords(60, 40, 120, 90));
+        pipeline.blur(new Rectangle(60, 40, 120, 90));
+        ImageProcessor.highlight(immediate, coords(0, 0, 200, 150), Color.blue, 2);
+        pipeline.highlight(new Rectangle(0, 0, 200, 150), Color.blue, 2);
+
+        assertSamePixels(immediate, pipeline.execute(source));
+        assertTrue(pipeline.isEmpty());
+    }
+
+    @Test
+    public void testHiddenOperations() {
+        BufferedImage immediate = noise(160, 120, 2);
+        BufferedImage source = copy(immediate);
+        OperationPipeline pipeline = new OperationPipeline(160, 120);
+
+        // blurred, converted and highlighted, then all painted over by one cut out
+        ImageProcessor.blurArea(immediate, coords(20, 20, 40, 30));
+        pipeline.blur(new Rectangle(20, 20, 40, 30));
+        ImageProcessor.monochromeArea(immediate, coords(30, 25, 20, 20));
+        pipeline.monochrome(new Rectangle(30, 25, 20, 20));
+        ImageProcessor.highlight(immediate, coords(25, 25, 20, 15), Color.green, 3);
+        pipeline.highlight(new Rectangle(25, 25, 20, 15), Color.green, 3);
+        ImageProcessor.cutOut(immediate, coords(10, 10, 70, 60), 0, 0);
+        pipeline.cutOut(new Rectangle(10, 10, 70, 60));
+        // the same opaque highlight twice
+        ImageProcessor.highlight(immediate, coords(90, 40, 50, 50), Color.red, 3);
+        pipeline.highlight(new Rectangle(90, 40, 50, 50), Color.red, 3);
+        ImageProcessor.highlight(immediate, coords(90, 40, 50, 50), Color.red, 3);
+        pipeline.highlight(new Rectangle(90, 40, 50, 50), Color.red, 3);
+        // a cut out read by a later blur is not dropped, though painted over afterwards
+        ImageProcessor.cutOut(immediate, coords(100, 90, 20, 20), 0, 0);
+        pipeline.cutOut(new Rectangle(100, 90, 20, 20));
+        ImageProcessor.blurArea(immediate, coords(90, 80, 60, 40));
+        pipeline.blur(new Rectangle(90, 80, 60, 40));
+        ImageProcessor.cutOut(immediate, coords(98, 88, 24, 24), 0, 0);
+        pipeline.cutOut(new Rectangle(98, 88, 24, 24));
+        // nor is a highlight read by a later blur, though repeated afterwards
+        ImageProcessor.highlight(immediate, coords(10, 75, 40, 30), Color.green, 3);
+        pipeline.highlight(new Rectangle(10, 75, 40, 30), Color.green, 3);
+        ImageProcessor.blurArea(immediate, coords(20, 70, 40, 40));
+        pipeline.blur(new Rectangle(20, 70, 40, 40));
+        ImageProcessor.highlight(immediate, coords(10, 75, 40, 30), Color.green, 3);
+        pipeline.highlight(new Rectangle(10, 75, 40, 30), Color.green, 3);
+
+        assertSamePixels(immediate, pipeline.execute(source));
+    }
+
+    @Test
+    public void testOperationsAroundCrops() {
+        BufferedImage immediate = noise(240, 180, 3);
+        BufferedImage source = copy(immediate);
+        OperationPipeline pipeline = new OperationPipeline(240, 180);
+
+        ImageProcessor.blurArea(immediate, coords(0, 0, 120, 100));
+        pipeline.blur(new Rectangle(0, 0, 120, 100));
+        ImageProcessor.highlight(immediate, coords(150, 120, 60, 40), Color.red, 3);
+        pipeline.highlight(new Rectangle(150, 120, 60, 40), Color.red, 3);
+        immediate = ImageProcessor.cropAround(immediate, coords(40, 30, 140, 110), 10, 5);
+        pipeline.crop(new Rectangle(30, 25, 160, 120));
+        ImageProcessor.monochromeArea(immediate, coords(20, 10, 90, 60));
+        pipeline.monochrome(new Rectangle(20, 10, 90, 60));
+        ImageProcessor.highlight(immediate, coords(5, 5, 100, 80), Color.blue, 5);
+        pipeline.highlight(new Rectangle(5, 5, 100, 80), Color.blue, 5);
+        immediate = ImageProcessor.cropAround(immediate, coords(10, 10, 120, 90), 0, 0);
+        pipeline.crop(new Rectangle(10, 10, 120, 90));
+        ImageProcessor.cutOut(immediate, coords(60, 40, 30, 30), 0, 0);
+        pipeline.cutOut(new Rectangle(60, 40, 30, 30));
+        ImageProcessor.blurArea(immediate, coords(50, 30, 70, 60));
+        pipeline.blur(new Rectangle(50, 30, 70, 60));
+
+        assertEquals(120, pipeline.getWidth());
+        assertEquals(90, pipeline.getHeight());
+        assertSamePixels(immediate, pipeline.execute(source));
+    }
+
+    @Test
+    public void testTranslucentAndWholeImageOperations() {
+        BufferedImage immediate = noise(180, 140, 4);
+        BufferedImage source = copy(immediate);
+        OperationPipeline pipeline = new OperationPipeline(180, 140);
+        Color translucent = new Color(255, 0, 0, 128);
+
+        ImageProcessor.monochromeArea(immediate, coords(20, 20, 60, 60));
+        pipeline.monochrome(new Rectangle(20, 20, 60, 60));
+        // blending reads the gray pixels, so the conversion under it must be kept
+        ImageProcessor.highlight(immediate, coords(30, 30, 60, 50), translucent, 6);
+        pipeline.highlight(new Rectangle(30, 30, 60, 50), translucent, 6);
+        ImageProcessor.highlight(immediate, coords(30, 30, 60, 50), translucent, 6);
+        pipeline.highlight(new Rectangle(30, 30, 60, 50), translucent, 6);
+        ImageProcessor.blurExceptArea(immediate, coords(40, 40, 80, 60));
+        pipeline.blurExcept(new Rectangle(40, 40, 80, 60));
+        immediate = ImageProcessor.cropAround(immediate, coords(20, 20, 140, 100), 0, 0);
+        pipeline.crop(new Rectangle(20, 20, 140, 100));
+        immediate = ImageProcessor.blurInPlace(immediate, BoxBlur.DEFAULT_RADIUS);
+        pipeline.blur();
+
+        assertSamePixels(immediate, pipeline.execute(source));
+    }
+
+    @Test
+    public void testBatchedAreasSameAsOneByOne() {
+        BufferedImage immediate = noise(150, 100, 5);
+        BufferedImage source = copy(immediate);
+        OperationPipeline pipeline = new OperationPipeline(150, 100);
+
+        ImageProcessor.blurAreas(immediate, Arrays.asList(coords(10, 10, 60, 40), coords(40, 30, 60, 50)));
+        pipeline.blur(Arrays.asList(new Rectangle(10, 10, 60, 40), new Rectangle(40, 30, 60, 50)));
+        ImageProcessor.monochromeAreas(immediate, Arrays.asList(coords(80, 10, 50, 50), coords(100, 40, 40, 50)));
+        pipeline.monochrome(ImageProcessor.disjointUnion(Arrays.asList(new Rectangle(80, 10, 50, 50), new Rectangle(100, 40, 40, 50))));
+
+        assertSamePixels(immediate, pipeline.execute(source));
+    }
+
+    @Test
+    public void testAreaOutsideImageFailsWhenRecorded() {
+        OperationPipeline pipeline = new OperationPipeline(100, 80);
+        pipeline.crop(new Rectangle(10, 10, 50, 40));
+        try {
+            pipeline.blur(Arrays.asList(new Rectangle(0, 0, 20, 20), new Rectangle(40, 30, 20, 20)));
+            throw new AssertionError("Area outside of the cropped image was recorded");
+        } catch (RasterFormatException expected) {
+            // none of the areas is recorded
+        }
+        try {
+            pipeline.monochrome(new Rectangle(0, 0, 51, 40));
+            throw new AssertionError("Area outside of the cropped image was recorded");
+        } catch (RasterFormatException expected) {
+            // nothing recorded
+        }
+        BufferedImage image = noise(100, 80, 6);
+        BufferedImage expected = copy(image).getSubimage(10, 10, 50, 40);
+        assertSamePixels(expected, pipeline.execute(image));
+    }
+
+    private static void assertSamePixels(BufferedImage expected, BufferedImage actual) {
+        assertEquals("width", expected.getWidth(), actual.getWidth());
+        assertEquals("height", expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals("pixel " + x + "," + y, expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+    }
+
+    private static Coordinates coords(int x, int y, int width, int height) {
+        Point point = new Point(x, y);
+        Dimension size = new Dimension(width, height);
+        return new Coordinates(point, point, size, size, 1D);
+    }
+
+    private static BufferedImage noise(int width, int height, long seed) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Random random = new Random(seed);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, 0xFF000000 | random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage copy(BufferedImage source) {
+        BufferedImage copy = new BufferedImage(source.getWidth(), source.getHeight(), source.getType());
+        copy.setData(source.getData());
+        return copy;
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.core;
+
+import com.assertthat.selenium_shutterbug.utils.image.model.PerceptualHash;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotTest {
+
+    @Test
+    public void testPrescreenComparesEqualLookingImages() {
+        BufferedImage image = noise(400, 300, 1);
+        BufferedImage changed = copy(image);
+        // one pixel between the sampled ones leaves the hash unchanged
+        changed.setRGB(1, 1, ~changed.getRGB(1, 1));
+        assertEquals(PerceptualHash.dHash(image), PerceptualHash.dHash(changed));
+
+        PageSnapshot snapshot = snapshot(image);
+        snapshot.withPerceptualPrescreen();
+        assertFalse(snapshot.equals(changed, 0));
+        assertTrue(snapshot.equals(copy(image), 0));
+    }
+
+    @Test
+    public void testPrescreenDecidesOnlyStrictComparisons() {
+        BufferedImage image = noise(400, 300, 2);
+        BufferedImage other = noise(400, 300, 3);
+        assertNotEquals(PerceptualHash.dHash(image), PerceptualHash.dHash(other));
+
+        PageSnapshot snapshot = snapshot(image);
+        snapshot.withPerceptualPrescreen();
+        assertFalse(snapshot.equals(other, 0));
+        // any deviation is within 1, whatever the hashes
+        assertTrue(snapshot.equals(other, 1));
+    }
+
+    private static PageSnapshot snapshot(BufferedImage image) {
+        PageSnapshot snapshot = new PageSnapshot(null, 1D);
+        snapshot.setImage(image);
+        return snapshot;
+    }
+
+    private static BufferedImage noise(int width, int height, long seed) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(seed);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt());
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage copy(BufferedImage source) {
+        BufferedImage copy = new BufferedImage(source.getWidth(), source.getHeight(), source.getType());
+        copy.setData(source.getData());
+        return copy;
+    }
+}
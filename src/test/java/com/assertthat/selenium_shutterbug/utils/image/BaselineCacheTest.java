@@ -0,0 +1,198 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.image;
+
+import com.assertthat.selenium_shutterbug.utils.image.model.LumaPlane;
+import com.assertthat.selenium_shutterbug.utils.image.model.TileHashIndex;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class BaselineCacheTest {
+
+    // decoded 10x10 images take 400 bytes
+    private static final long IMAGE_BYTES = 400;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testHitsAndMisses() throws IOException {
+        BaselineCache cache = new BaselineCache(10 * IMAGE_BYTES);
+        File file = baseline("a.png", 10, 10, 0x336699);
+        BufferedImage image = cache.getImage(file);
+        assertSame(image, cache.getImage(file));
+        assertSame(image, cache.getImage(file));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.size());
+        assertEquals(IMAGE_BYTES, cache.getBytes());
+        cache.resetCounters();
+        assertEquals(0, cache.getHits());
+        assertEquals(0, cache.getMisses());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvictedOverBudget() throws IOException {
+        BaselineCache cache = new BaselineCache(2 * IMAGE_BYTES + IMAGE_BYTES / 2);
+        File a = baseline("a.png", 10, 10, 0x111111);
+        File b = baseline("b.png", 10, 10, 0x222222);
+        File c = baseline("c.png", 10, 10, 0x333333);
+        BufferedImage imageA = cache.getImage(a);
+        cache.getImage(b);
+        cache.getImage(a);
+        cache.getImage(c);
+        assertEquals(2, cache.size());
+        assertEquals(2 * IMAGE_BYTES, cache.getBytes());
+        cache.resetCounters();
+        assertSame(imageA, cache.getImage(a));
+        cache.getImage(b);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        cache.setMaxBytes(IMAGE_BYTES);
+        assertEquals(1, cache.size());
+        assertEquals(IMAGE_BYTES, cache.getBytes());
+    }
+
+    @Test
+    public void testImageOverBudgetNotCached() throws IOException {
+        BaselineCache cache = new BaselineCache(IMAGE_BYTES);
+        File large = baseline("large.png", 20, 10, 0x445566);
+        BufferedImage image = cache.getImage(large);
+        assertEquals(20, image.getWidth());
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+        cache.getImage(large);
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void testInvalidatedWhenFileChanges() throws IOException {
+        BaselineCache cache = new BaselineCache(10 * IMAGE_BYTES);
+        File file = baseline("a.png", 10, 10, 0x336699);
+        BufferedImage image = cache.getImage(file);
+
+        // modification time only
+        file.setLastModified(file.lastModified() - 10000);
+        BufferedImage touched = cache.getImage(file);
+        assertNotSame(image, touched);
+        assertEquals(2, cache.getMisses());
+
+        // same modification time, other length
+        long lastModified = file.lastModified();
+        ImageIO.write(image(20, 10, 0x996633), "png", file);
+        file.setLastModified(lastModified);
+        BufferedImage rewritten = cache.getImage(file);
+        assertEquals(20, rewritten.getWidth());
+        assertEquals(3, cache.getMisses());
+        assertEquals(0, cache.getHits());
+        assertEquals(1, cache.size());
+        assertEquals(2 * IMAGE_BYTES, cache.getBytes());
+    }
+
+    @Test
+    public void testLumaPlaneCachedAlongsideImage() throws IOException {
+        BaselineCache cache = new BaselineCache(10 * IMAGE_BYTES);
+        File file = baseline("a.png", 10, 10, 0x336699);
+        LumaPlane luma = cache.getLumaPlane(file);
+        assertSame(luma, cache.getLumaPlane(file));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.size());
+        assertEquals(luma.getBytes(), cache.getBytes());
+    }
+
+    @Test
+    public void testTileIndexCachedAndStoredInSidecarDirectory() throws IOException {
+        File previous = TileHashIndex.getSidecarDirectory();
+        File sidecars = new File(temporaryFolder.getRoot(), "tiles");
+        TileHashIndex.setSidecarDirectory(sidecars);
+        try {
+            BaselineCache cache = new BaselineCache(10 * IMAGE_BYTES);
+            File file = baseline("a.png", 10, 10, 0x336699);
+            BufferedImage image = cache.getImage(file);
+            TileHashIndex tiles = cache.getTileIndex(file, image, 4);
+            assertSame(tiles, cache.getTileIndex(file, image, 4));
+            assertEquals(9, tiles.getTileCount());
+            assertEquals(1, sidecars.list().length);
+            assertEquals(2, cache.size());
+            assertEquals(IMAGE_BYTES + 9 * 8, cache.getBytes());
+
+            file.setLastModified(file.lastModified() - 10000);
+            assertNotSame(tiles, cache.getTileIndex(file, cache.getImage(file), 4));
+        } finally {
+            TileHashIndex.setSidecarDirectory(previous);
+        }
+    }
+
+    @Test
+    public void testSoftByDefaultAndOffWithoutBudget() throws IOException {
+        BaselineCache cache = new BaselineCache(10 * IMAGE_BYTES);
+        File file = baseline("a.png", 10, 10, 0x336699);
+        cache.getImage(file);
+        cache.clearSoftReferences();
+        assertEquals(0, cache.size());
+
+        cache.getImage(file);
+        cache.setMaxBytes(0);
+        assertEquals(0, cache.size());
+        cache.getImage(file);
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+    }
+
+    @Test
+    public void testClearedSoftReferencesNotCounted() throws IOException {
+        BaselineCache cache = new BaselineCache(10 * IMAGE_BYTES);
+        cache.setSoftReferences(true);
+        File a = baseline("a.png", 10, 10, 0x111111);
+        File b = baseline("b.png", 10, 10, 0x222222);
+        BufferedImage imageA = cache.getImage(a);
+        assertSame(imageA, cache.getImage(a));
+        cache.getImage(b);
+        assertEquals(2 * IMAGE_BYTES, cache.getBytes());
+
+        cache.clearSoftReferences();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getBytes());
+        cache.resetCounters();
+        assertNotSame(imageA, cache.getImage(a));
+        assertEquals(1, cache.getMisses());
+        assertEquals(IMAGE_BYTES, cache.getBytes());
+
+        cache.setSoftReferences(false);
+        cache.getImage(b);
+        cache.clearSoftReferences();
+        // only the entry cached with a strong reference is kept
+        assertEquals(1, cache.size());
+        assertEquals(IMAGE_BYTES, cache.getBytes());
+    }
+
+    private File baseline(String name, int width, int height, int rgb) throws IOException {
+        File file = temporaryFolder.newFile(name);
+        ImageIO.write(image(width, height, rgb), "png", file);
+        return file;
+    }
+
+    private static BufferedImage image(int width, int height, int rgb) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, rgb ^ (x * 31 + y * 17));
+            }
+        }
+        return image;
+    }
+}
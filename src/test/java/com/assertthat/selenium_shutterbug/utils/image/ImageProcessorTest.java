@@ -16,17 +16,39 @@
 
 package com.assertthat.selenium_shutterbug.utils.image;
 
+import com.assertthat.selenium_shutterbug.utils.image.model.BoundedDeviation;
+import com.assertthat.selenium_shutterbug.utils.image.model.ComparisonResult;
+import com.assertthat.selenium_shutterbug.utils.image.model.ImagePyramid;
+import com.assertthat.selenium_shutterbug.utils.image.model.LumaPlane;
+import com.assertthat.selenium_shutterbug.utils.image.model.PerceptualHash;
+import com.assertthat.selenium_shutterbug.utils.image.model.PixelData;
+import com.assertthat.selenium_shutterbug.utils.image.model.SampledDeviation;
+import com.assertthat.selenium_shutterbug.utils.image.model.StructuralSimilarity;
+import com.assertthat.selenium_shutterbug.utils.image.model.TileHashIndex;
 import com.assertthat.selenium_shutterbug.utils.web.Coordinates;
 import org.junit.Ignore;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.openqa.selenium.Dimension;
 import org.openqa.selenium.Point;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.ConvolveOp;
+import java.awt.image.Kernel;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -34,6 +56,9 @@ import static org.junit.Assert.assertTrue;
  */
 public class ImageProcessorTest {
 
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
     @Test(expected=UnableToCompareImagesException.class)
     public void testThrowExceptionIfSizeNotMatch() {
             int width = 300;
@@ -66,6 +91,123 @@ public class ImageProcessorTest {
         assertTrue("Images are not equal after blur",ImageProcessor.imagesAreEquals(blurredActualImage, blurredExpectedImage, 0.0));
     }
 
+    @Test
+    public void testBoxBlurMatchesConvolution() {
+        BufferedImage source = noise(97, 61, 61);
+        float[] kernel = new float[25];
+        Arrays.fill(kernel, 1f / 25f);
+        BufferedImage convolved = new ConvolveOp(new Kernel(5, 5, kernel), ConvolveOp.EDGE_NO_OP, null).filter(source, null);
+        BufferedImage copy = convert(source, BufferedImage.TYPE_INT_RGB);
+        assertTrue(ImageProcessor.imagesAreEquals(convolved, ImageProcessor.blur(source, 2), 0.0));
+        assertTrue(ImageProcessor.imagesAreEquals(source, copy, 0.0));
+        assertTrue(ImageProcessor.blurInPlace(copy, 2) == copy);
+        assertTrue(ImageProcessor.imagesAreEquals(convolved, copy, 0.0));
+    }
+
+    @Test
+    public void testRegionBlurInPlace() {
+        BufferedImage source = noise(120, 90, 71);
+        Point point = new Point(20, 15);
+        Dimension size = new Dimension(50, 40);
+        Coordinates coords = new Coordinates(point, point, size, size, 1D);
+
+        BufferedImage expectedArea = convert(source, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = expectedArea.createGraphics();
+        g.drawImage(ImageProcessor.blur(source.getSubimage(20, 15, 50, 40)), 20, 15, null);
+        g.dispose();
+        BufferedImage area = convert(source, BufferedImage.TYPE_INT_RGB);
+        assertTrue(ImageProcessor.blurArea(area, coords) == area);
+        assertTrue(ImageProcessor.imagesAreEquals(expectedArea, area, 0.0));
+
+        BufferedImage expectedExcept = ImageProcessor.blur(source);
+        g = expectedExcept.createGraphics();
+        g.drawImage(source.getSubimage(20, 15, 50, 40), 20, 15, null);
+        g.dispose();
+        BufferedImage except = convert(source, BufferedImage.TYPE_INT_RGB);
+        assertTrue(ImageProcessor.blurExceptArea(except, coords) == except);
+        assertTrue(ImageProcessor.imagesAreEquals(expectedExcept, except, 0.0));
+    }
+
+    @Test
+    public void testFastGrayscaleMatchesColorConvert() {
+        BufferedImage source = noise(64, 48, 17);
+        int[] types = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR,
+                BufferedImage.TYPE_4BYTE_ABGR};
+        for (int type : types) {
+            BufferedImage exact = Grayscale.apply(convert(source, type), Grayscale.Mode.ICC);
+            BufferedImage original = convert(source, type);
+            BufferedImage fast = convert(source, type);
+            Grayscale.apply(fast.getSubimage(8, 4, 40, 30), Grayscale.Mode.FAST);
+            for (int y = 0; y < source.getHeight(); y++) {
+                for (int x = 0; x < source.getWidth(); x++) {
+                    int pixel = fast.getRGB(x, y);
+                    if (x < 8 || x >= 48 || y < 4 || y >= 34) {
+                        assertEquals(original.getRGB(x, y), pixel);
+                        continue;
+                    }
+                    int expected = exact.getRGB(x, y);
+                    assertEquals(expected >>> 24, pixel >>> 24);
+                    assertTrue("Type " + type + " at " + x + "," + y, Math.abs((expected & 0xff) - (pixel & 0xff)) <= 1);
+                    assertEquals(pixel & 0xff, (pixel >> 8) & 0xff);
+                    assertEquals(pixel & 0xff, (pixel >> 16) & 0xff);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCanonicalImageType() throws IOException {
+        BufferedImage decoded = new BufferedImage(2, 1, BufferedImage.TYPE_4BYTE_ABGR);
+        decoded.setRGB(0, 0, 0x80ff8040);
+        decoded.setRGB(1, 0, 0xff123456);
+        BufferedImage canonical = ImageProcessor.toCanonical(decoded);
+        assertEquals(BufferedImage.TYPE_INT_RGB, canonical.getType());
+        assertEquals(0xffff8040, canonical.getRGB(0, 0));
+        assertEquals(0xff123456, canonical.getRGB(1, 0));
+        assertTrue(ImageProcessor.toCanonical(canonical) == canonical);
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(convert(noise(20, 10, 3), BufferedImage.TYPE_3BYTE_BGR), "png", png);
+        assertEquals(BufferedImage.TYPE_INT_RGB, ImageProcessor.createImageFromBytes(png.toByteArray()).getType());
+        try {
+            ImageProcessor.setCanonicalImageType(BufferedImage.TYPE_CUSTOM);
+            assertTrue(ImageProcessor.toCanonical(decoded) == decoded);
+            assertEquals(BufferedImage.TYPE_INT_ARGB, ImageProcessor.createCanonicalImage(4, 4).getType());
+        } finally {
+            ImageProcessor.setCanonicalImageType(BufferedImage.TYPE_INT_RGB);
+        }
+    }
+
+    @Test
+    public void testImagePool() throws IOException {
+        ImagePool pool = new ImagePool(1 << 20);
+        BufferedImage image = pool.acquire(10, 10, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(5, 5, 0xff123456);
+        pool.release(image.getSubimage(2, 2, 6, 6));
+        assertEquals(400, pool.getBytes());
+        BufferedImage reused = pool.acquire(10, 10, BufferedImage.TYPE_INT_RGB);
+        assertTrue(reused.getRaster().getDataBuffer() == image.getRaster().getDataBuffer());
+        assertEquals(BufferedImage.TYPE_INT_RGB, reused.getType());
+        assertEquals(0xff000000, reused.getRGB(5, 5));
+        assertEquals(1, pool.getHits());
+
+        pool.release(new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB));
+        assertEquals(0, pool.getBytes());
+        pool.setMaxBytes(100);
+        pool.release(reused);
+        assertEquals(0, pool.getBytes());
+
+        pool.setMaxBytes(1 << 20);
+        BufferedImage source = convert(noise(30, 20, 5), BufferedImage.TYPE_3BYTE_BGR);
+        File file = temporaryFolder.newFile("pooled.png");
+        ImageIO.write(source, "png", file);
+        BufferedImage decoded = pool.read(file);
+        assertEquals(BufferedImage.TYPE_3BYTE_BGR, decoded.getType());
+        assertTrue(ImageProcessor.imagesAreEquals(source, decoded, 0.0));
+        pool.release(decoded);
+        assertTrue(pool.read(file).getRaster().getDataBuffer() == decoded.getRaster().getDataBuffer());
+    }
+
     @Test
     public void testImagesAreEqualsWithDeviation() throws IOException {
         double deviation = 0.2;
@@ -74,6 +216,368 @@ public class ImageProcessorTest {
         assertTrue("Images are not equal with deviation: " + deviation,ImageProcessor.imagesAreEquals(image1, image2, deviation));
     }
 
+    @Test
+    public void testDeviationIsExactForAllImageTypes() throws IOException {
+        BufferedImage image1 = ImageIO.read(Thread.currentThread().getContextClassLoader().getResourceAsStream("clearImage.png"));
+        BufferedImage image2 = ImageIO.read(Thread.currentThread().getContextClassLoader().getResourceAsStream("clearImageDeviation.png"));
+        double deviation = legacyDeviation(image1, image2);
+        int[] types = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR,
+                BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_BGR};
+        for (int type1 : types) {
+            for (int type2 : types) {
+                BufferedImage converted1 = convert(image1, type1);
+                BufferedImage converted2 = convert(image2, type2);
+                assertTrue("Deviation differs for types " + type1 + "/" + type2,
+                        ImageProcessor.imagesAreEquals(converted1, converted2, deviation));
+                assertFalse("Deviation differs for types " + type1 + "/" + type2,
+                        ImageProcessor.imagesAreEquals(converted1, converted2, Math.nextDown(deviation)));
+            }
+        }
+        BufferedImage sub1 = convert(image1, BufferedImage.TYPE_INT_RGB).getSubimage(3, 2, image1.getWidth() - 5, image1.getHeight() - 4);
+        BufferedImage sub2 = convert(image2, BufferedImage.TYPE_3BYTE_BGR).getSubimage(3, 2, image1.getWidth() - 5, image1.getHeight() - 4);
+        double subDeviation = legacyDeviation(sub1, sub2);
+        assertTrue(subDeviation > 0);
+        assertTrue(ImageProcessor.imagesAreEquals(sub1, sub2, subDeviation));
+        assertFalse(ImageProcessor.imagesAreEquals(sub1, sub2, Math.nextDown(subDeviation)));
+    }
+
+    @Test
+    public void testParallelDeviationMatchesSequential() {
+        BufferedImage image1 = noise(800, 700, 1);
+        BufferedImage image2 = noise(800, 700, 2);
+        double deviation = legacyDeviation(image1, image2);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertTrue(ImageProcessor.imagesAreEquals(image1, image2, deviation, pool));
+            assertFalse(ImageProcessor.imagesAreEquals(image1, image2, Math.nextDown(deviation), pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testCompareWithinDeviation() {
+        BufferedImage image1 = noise(800, 700, 1);
+        BufferedImage image2 = noise(800, 700, 2);
+        double deviation = legacyDeviation(image1, image2);
+        BoundedDeviation within = ImageProcessor.compareWithinDeviation(image1, image2, deviation);
+        assertTrue(within.isEqual());
+        assertEquals(deviation, within.getDeviation(), 0.0);
+        BoundedDeviation exceeded = ImageProcessor.compareWithinDeviation(image1, image2, deviation / 100);
+        assertTrue(exceeded.isStoppedEarly());
+        assertTrue(exceeded.getDeviation() > deviation / 100);
+        assertTrue(exceeded.getDeviation() < deviation);
+        assertFalse(ImageProcessor.compareWithinDeviation(image1, image2, Math.nextDown(deviation)).isEqual());
+    }
+
+    @Test
+    public void testDifferencesImage() throws IOException {
+        BufferedImage image1 = convert(noise(300, 250, 1), BufferedImage.TYPE_3BYTE_BGR);
+        BufferedImage image2 = noise(300, 250, 2);
+        String path = new File(temporaryFolder.getRoot(), "diff").getPath();
+        assertFalse(ImageProcessor.imagesAreEqualsWithDiff(image1, image2, path, 0.0));
+        BufferedImage diff = ImageIO.read(new File(path + ".png"));
+        int red = new Color(255, 0, 0).getRGB();
+        for (int y = 0; y < image1.getHeight(); y++) {
+            for (int x = 0; x < image1.getWidth(); x++) {
+                int rgb1 = image1.getRGB(x, y);
+                int expected = rgb1 != image2.getRGB(x, y) ? red & rgb1 : rgb1;
+                assertEquals("Pixel " + x + "," + y, expected | 0xff000000, diff.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void testImagesAreEqualsWithTileIndex() throws IOException {
+        BufferedImage baseline = noise(300, 250, 1);
+        BufferedImage actual = convert(baseline, BufferedImage.TYPE_INT_RGB);
+        for (int x = 50; x < 90; x++) {
+            actual.setRGB(x, 100, 0xff0000);
+        }
+        File baselineFile = temporaryFolder.newFile("baseline.png");
+        ImageIO.write(baseline, "png", baselineFile);
+        File sidecars = new File(temporaryFolder.getRoot(), "tiles");
+        TileHashIndex tiles = TileHashIndex.forBaseline(baselineFile, PixelData.of(baseline), TileHashIndex.DEFAULT_TILE_SIZE, sidecars);
+        File sidecar = TileHashIndex.sidecarFile(baselineFile, sidecars);
+        assertTrue(sidecar.isFile());
+        assertEquals(sidecars, sidecar.getParentFile());
+        assertFalse(TileHashIndex.sidecarFile(new File(temporaryFolder.getRoot(), "other/baseline.png"), sidecars).equals(sidecar));
+        // truncated sidecars are rebuilt
+        long sidecarLength = sidecar.length();
+        Files.write(sidecar.toPath(), new byte[10]);
+        TileHashIndex reread = TileHashIndex.forBaseline(baselineFile, PixelData.of(baseline), TileHashIndex.DEFAULT_TILE_SIZE, sidecars);
+        assertEquals(0, reread.countChangedTiles(tiles));
+        assertEquals(sidecarLength, sidecar.length());
+        assertEquals(1, sidecars.list().length);
+        assertEquals(2, TileHashIndex.of(PixelData.of(actual), TileHashIndex.DEFAULT_TILE_SIZE).countChangedTiles(tiles));
+
+        double deviation = legacyDeviation(actual, baseline);
+        String path = new File(temporaryFolder.getRoot(), "diff").getPath();
+        assertTrue(ImageProcessor.imagesAreEqualsWithDiff(actual, baseline, tiles, path, deviation));
+        assertFalse(ImageProcessor.imagesAreEqualsWithDiff(actual, baseline, tiles, path, Math.nextDown(deviation)));
+        assertTrue(new File(path + ".png").isFile());
+
+        ImageIO.write(actual, "png", baselineFile);
+        baselineFile.setLastModified(baselineFile.lastModified() + 1000);
+        TileHashIndex rebuilt = TileHashIndex.forBaseline(baselineFile, PixelData.of(actual), TileHashIndex.DEFAULT_TILE_SIZE, sidecars);
+        assertEquals(0, TileHashIndex.of(PixelData.of(actual), TileHashIndex.DEFAULT_TILE_SIZE).countChangedTiles(rebuilt));
+    }
+
+    @Test
+    public void testPerceptualHashIndex() throws IOException {
+        BufferedImage baseline = ImageIO.read(Thread.currentThread().getContextClassLoader().getResourceAsStream("clearImage.png"));
+        BufferedImage other = noise(baseline.getWidth(), baseline.getHeight(), 7);
+        File baselines = temporaryFolder.newFolder("baselines");
+        File baselineFile = new File(baselines, "baseline.png");
+        File otherFile = new File(baselines, "other.png");
+        ImageIO.write(baseline, "png", baselineFile);
+        ImageIO.write(other, "png", otherFile);
+        PerceptualHashIndex index = new PerceptualHashIndex();
+        index.addAll(baselines);
+        File indexFile = temporaryFolder.newFile("hashes.txt");
+        index.save(indexFile);
+        PerceptualHashIndex loaded = PerceptualHashIndex.load(indexFile);
+        assertEquals(2, loaded.size());
+        assertEquals(index.get(baselineFile.getPath()), loaded.get(baselineFile.getPath()));
+        BufferedImage capture = convert(baseline, BufferedImage.TYPE_3BYTE_BGR);
+        capture.setRGB(1, 1, 0xff0000);
+        assertEquals(baselineFile.getPath(), loaded.findMostSimilar(capture).getPath());
+        assertEquals(0, PerceptualHash.distance(PerceptualHash.dHash(capture), PerceptualHash.dHash(baseline)));
+    }
+
+    @Test
+    public void testPyramidComparison() {
+        BufferedImage expected = noise(301, 517, 11);
+        BufferedImage actual = convert(expected, BufferedImage.TYPE_3BYTE_BGR);
+        Random random = new Random(3);
+        for (int i = 0; i < 40; i++) {
+            actual.setRGB(random.nextInt(301), random.nextInt(517), random.nextInt());
+        }
+        double exact = legacyDeviation(actual, expected);
+        BoundedDeviation pyramid = ImageProcessor.compareWithPyramids(actual, expected, null, 1);
+        assertEquals(exact, pyramid.getDeviation(), 1e-12);
+        assertTrue(ImageProcessor.imagesAreEqualsPyramid(actual, expected, exact));
+        assertFalse(ImageProcessor.imagesAreEqualsPyramid(actual, expected, exact / 2));
+        BoundedDeviation gross = ImageProcessor.compareWithPyramids(noise(301, 517, 12), expected, null, 0.001);
+        assertTrue(gross.isStoppedEarly());
+    }
+
+    @Test
+    public void testPyramidComparisonDetectsSwappedPixels() {
+        BufferedImage expected = noise(64, 48, 13);
+        expected.setRGB(10, 10, 0xff0000);
+        expected.setRGB(11, 10, 0x0000ff);
+        expected.setRGB(16, 24, 0x00ff00);
+        expected.setRGB(23, 31, 0x123456);
+        BufferedImage actual = convert(expected, BufferedImage.TYPE_INT_RGB);
+        // swapped within a 2x2 cell, and across the 2x2 cells of an 8x8 cell
+        actual.setRGB(10, 10, 0x0000ff);
+        actual.setRGB(11, 10, 0xff0000);
+        actual.setRGB(16, 24, 0x123456);
+        actual.setRGB(23, 31, 0x00ff00);
+        assertFalse(ImageProcessor.imagesAreEqualsPyramid(actual, expected, 0));
+        BoundedDeviation pyramid = ImageProcessor.compareWithPyramids(actual, expected, null, 1);
+        assertEquals(legacyDeviation(actual, expected), pyramid.getDeviation(), 1e-12);
+        BoundedDeviation prebuilt = ImageProcessor.compareWithPyramids(actual, ImagePyramid.of(PixelData.of(actual)),
+                expected, ImagePyramid.of(PixelData.of(expected)), 1);
+        assertEquals(pyramid.getDeviation(), prebuilt.getDeviation(), 0);
+    }
+
+    @Test
+    public void testReplacedComparisonPoolStillUsable() {
+        BufferedImage expected = noise(300, 200, 21);
+        BufferedImage actual = convert(expected, BufferedImage.TYPE_INT_RGB);
+        actual.setRGB(10, 10, 0xff0000);
+        try {
+            ImageProcessor.setComparisonParallelism(2);
+            ForkJoinPool replaced = ImageProcessor.getComparisonPool();
+            ImageProcessor.setComparisonParallelism(3);
+            // a comparison that read the pool before the switch still runs on it
+            assertFalse(replaced.isShutdown());
+            assertFalse(ImageProcessor.imagesAreEquals(actual, expected, 0, replaced));
+            assertTrue(ImageProcessor.imagesAreEquals(actual, expected, 1, replaced));
+            assertEquals(3, ImageProcessor.getComparisonPool().getParallelism());
+        } finally {
+            ImageProcessor.setComparisonParallelism(1);
+        }
+    }
+
+    @Test
+    public void testFindChangedRegions() {
+        BufferedImage expected = new BufferedImage(200, 300, BufferedImage.TYPE_INT_RGB);
+        BufferedImage actual = convert(expected, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = actual.createGraphics();
+        g.setColor(Color.red);
+        g.fillRect(10, 20, 30, 5);
+        g.fillRect(10, 27, 30, 5);
+        g.fillRect(150, 250, 4, 4);
+        g.dispose();
+        assertEquals(Arrays.asList(new Rectangle(10, 20, 30, 5), new Rectangle(10, 27, 30, 5), new Rectangle(150, 250, 4, 4)),
+                ImageProcessor.findChangedRegions(actual, expected, 0));
+        String prefix = new File(temporaryFolder.getRoot(), "region").getPath();
+        assertEquals(Arrays.asList(new Rectangle(10, 20, 30, 12), new Rectangle(150, 250, 4, 4)),
+                ImageProcessor.findChangedRegions(actual, expected, 2, prefix));
+        assertTrue(new File(prefix + "_2_before.png").isFile());
+        assertTrue(new File(prefix + "_2_after.png").isFile());
+        assertTrue(ImageProcessor.findChangedRegions(expected, expected, 5).isEmpty());
+    }
+
+    @Test
+    public void testComparisonResult() {
+        BufferedImage expected = noise(120, 80, 21);
+        BufferedImage actual = convert(expected, BufferedImage.TYPE_INT_RGB);
+        actual.setRGB(5, 5, 0xffffff);
+        actual.setRGB(100, 70, 0);
+        double exact = legacyDeviation(actual, expected);
+        ComparisonResult equal = ImageProcessor.compare(actual, expected, exact);
+        assertTrue(equal.isEqual());
+        assertEquals(exact, equal.getDeviation(), 1e-12);
+        assertEquals(2, equal.getDifferingPixels());
+        String diffPath = new File(temporaryFolder.getRoot(), "diff").getPath();
+        ComparisonResult different = ImageProcessor.compareWithDiff(actual, expected, diffPath, exact / 2);
+        assertFalse(different.isEqual());
+        assertFalse(different.isStoppedEarly());
+        assertEquals(2, different.getDifferingPixels());
+        assertEquals(new File(diffPath + ".png").length(), different.getBytesWritten());
+        assertTrue(different.getBytesWritten() > 0);
+    }
+
+    @Test
+    public void testSsim() {
+        BufferedImage expected = noise(150, 130, 31);
+        StructuralSimilarity same = ImageProcessor.ssim(expected, convert(expected, BufferedImage.TYPE_3BYTE_BGR));
+        assertEquals(1.0, same.getScore(), 1e-9);
+        BufferedImage actual = convert(expected, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = actual.createGraphics();
+        g.setColor(Color.white);
+        g.fillRect(80, 80, 50, 50);
+        g.dispose();
+        StructuralSimilarity changed = ImageProcessor.ssim(actual, expected, 8, 64);
+        assertEquals(3, changed.getColumns());
+        assertEquals(3, changed.getRows());
+        assertEquals(1.0, changed.getTileScore(0, 0), 1e-9);
+        assertTrue(changed.getTileScore(1, 1) < 0.9);
+        assertTrue(changed.getScore() < 1.0);
+        assertEquals(changed.getTileScore(1, 1), changed.getMinTileScore(), 0);
+        assertFalse(ImageProcessor.imagesAreSimilar(actual, expected, 0.99));
+    }
+
+    @Test
+    public void testEstimateDeviation() {
+        BufferedImage expected = noise(640, 480, 41);
+        BufferedImage broken = convert(expected, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = broken.createGraphics();
+        g.setColor(Color.white);
+        g.fillRect(0, 0, 640, 240);
+        g.dispose();
+        double exact = legacyDeviation(broken, expected);
+        SampledDeviation estimate = ImageProcessor.estimateDeviation(broken, expected, 0.01, 0.01);
+        assertFalse(estimate.isEqual());
+        assertFalse(estimate.isExact());
+        assertTrue(estimate.getLowerBound() <= exact && exact <= estimate.getUpperBound());
+        assertTrue(ImageProcessor.imagesAreEqualsSampled(expected, convert(expected, BufferedImage.TYPE_3BYTE_BGR), 0.01, 0.01));
+        SampledDeviation undecided = ImageProcessor.estimateDeviation(broken, expected, exact, 0.01);
+        assertTrue(undecided.isExact());
+        assertTrue(undecided.isEqual());
+        assertEquals(exact, undecided.getDeviation(), 1e-12);
+    }
+
+    @Test
+    public void testImagesAreEqualsLuma() throws IOException {
+        BufferedImage expected = noise(90, 60, 51);
+        BufferedImage actual = convert(expected, BufferedImage.TYPE_4BYTE_ABGR);
+        actual.setRGB(10, 10, 0xffffffff);
+        LumaPlane expectedLuma = LumaPlane.of(expected);
+        LumaPlane actualLuma = LumaPlane.of(actual);
+        double deviation = Math.abs(actualLuma.get(10, 10) - expectedLuma.get(10, 10)) / (90 * 60 * 255.0);
+        assertTrue(ImageProcessor.imagesAreEqualsLuma(actual, expected, deviation));
+        assertFalse(ImageProcessor.imagesAreEqualsLuma(actual, expected, deviation / 2));
+        File baselineFile = temporaryFolder.newFile("luma.png");
+        ImageIO.write(expected, "png", baselineFile);
+        BaselineCache cache = BaselineCache.getInstance();
+        LumaPlane cached = cache.getLumaPlane(baselineFile);
+        assertTrue(cached == cache.getLumaPlane(baselineFile));
+        assertTrue(ImageProcessor.lumaPlanesAreEquals(expectedLuma, cached, 0));
+    }
+
+    @Test
+    public void testReadCanonicalFromBytes() throws IOException {
+        BufferedImage image = noise(120, 80, 23);
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", png);
+        BufferedImage decoded = ImageProcessor.readCanonical(png.toByteArray());
+        assertEquals(ImageProcessor.getCanonicalImageType(), decoded.getType());
+        assertTrue(ImageProcessor.imagesAreEquals(image, decoded, 0.0));
+        assertEquals(null, ImageProcessor.readCanonical(new byte[]{1, 2, 3, 4}));
+    }
+
+    @Test
+    public void testBatchedAreaOperations() {
+        List<Coordinates> elements = Arrays.asList(coords(10, 10, 60, 40), coords(20, 20, 20, 10),
+                coords(50, 30, 50, 40), coords(120, 5, 30, 30));
+        List<Rectangle> areas = Arrays.asList(new Rectangle(10, 10, 60, 40), new Rectangle(20, 20, 20, 10),
+                new Rectangle(50, 30, 50, 40), new Rectangle(120, 5, 30, 30));
+        List<Rectangle> union = ImageProcessor.disjointUnion(areas);
+        for (int y = 0; y < 100; y++) {
+            for (int x = 0; x < 160; x++) {
+                int covering = 0;
+                for (Rectangle piece : union) {
+                    covering += piece.contains(x, y) ? 1 : 0;
+                }
+                boolean inside = false;
+                for (Rectangle area : areas) {
+                    inside |= area.contains(x, y);
+                }
+                assertEquals(inside ? 1 : 0, covering);
+            }
+        }
+
+        BufferedImage image = noise(160, 100, 11);
+        BufferedImage gray = ImageProcessor.monochromeAreas(convert(image, BufferedImage.TYPE_INT_RGB), elements);
+        for (int y = 0; y < 100; y++) {
+            for (int x = 0; x < 160; x++) {
+                int rgb = gray.getRGB(x, y);
+                int covering = 0;
+                for (Rectangle piece : union) {
+                    covering += piece.contains(x, y) ? 1 : 0;
+                }
+                if (covering == 0) {
+                    assertEquals(image.getRGB(x, y), rgb);
+                } else {
+                    assertTrue((rgb & 0xff) == (rgb >> 8 & 0xff) && (rgb & 0xff) == (rgb >> 16 & 0xff));
+                }
+            }
+        }
+
+        BufferedImage expected = convert(image, BufferedImage.TYPE_INT_RGB);
+        for (Coordinates element : elements) {
+            ImageProcessor.blurArea(expected, element);
+        }
+        BufferedImage blurred = ImageProcessor.blurAreas(convert(image, BufferedImage.TYPE_INT_RGB), elements);
+        assertTrue(ImageProcessor.imagesAreEquals(expected, blurred, 0.0));
+        // inside the bounding box of the overlapping areas, outside of both
+        assertEquals(image.getRGB(90, 20), blurred.getRGB(90, 20));
+        assertEquals(image.getRGB(20, 60), blurred.getRGB(20, 60));
+
+        expected = convert(image, BufferedImage.TYPE_INT_RGB);
+        for (Coordinates element : elements) {
+            ImageProcessor.highlight(expected, element, Color.red, 3);
+        }
+        for (Coordinates element : elements) {
+            ImageProcessor.cutOut(expected, element, 2, 2);
+        }
+        BufferedImage actual = convert(image, BufferedImage.TYPE_INT_RGB);
+        ImageProcessor.highlight(actual, elements, Color.red, 3);
+        ImageProcessor.cutOut(actual, elements, 2, 2);
+        assertTrue(ImageProcessor.imagesAreEquals(expected, actual, 0.0));
+    }
+
+    private static Coordinates coords(int x, int y, int width, int height) {
+        Point point = new Point(x, y);
+        Dimension size = new Dimension(width, height);
+        return new Coordinates(point, point, size, size, 1D);
+    }
+
     @Test
     public void testHighlight() throws IOException {
         Point point = new Point(9,33);
@@ -96,5 +600,37 @@ public class ImageProcessorTest {
         assertTrue("Images are not equal after adding text",ImageProcessor.imagesAreEquals(addedTextExpectedImage, addedTextActualImage, 0.0));
     }
 
+    private static double legacyDeviation(BufferedImage image1, BufferedImage image2) {
+        long diff = 0;
+        for (int y = 0; y < image1.getHeight(); y++) {
+            for (int x = 0; x < image1.getWidth(); x++) {
+                int rgb1 = image1.getRGB(x, y);
+                int rgb2 = image2.getRGB(x, y);
+                diff += Math.abs(((rgb1 >> 16) & 0xff) - ((rgb2 >> 16) & 0xff));
+                diff += Math.abs(((rgb1 >> 8) & 0xff) - ((rgb2 >> 8) & 0xff));
+                diff += Math.abs((rgb1 & 0xff) - (rgb2 & 0xff));
+            }
+        }
+        double n = image1.getWidth() * image1.getHeight() * 3;
+        return diff / n / 255.0;
+    }
 
+    private static BufferedImage noise(int width, int height, long seed) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(seed);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                image.setRGB(x, y, random.nextInt(4) == 0 ? random.nextInt() : 0x336699);
+            }
+        }
+        return image;
+    }
+
+    private static BufferedImage convert(BufferedImage source, int type) {
+        BufferedImage converted = new BufferedImage(source.getWidth(), source.getHeight(), type);
+        Graphics2D g = converted.createGraphics();
+        g.drawImage(source, 0, 0, null);
+        g.dispose();
+        return converted;
+    }
 }
@@ -0,0 +1,58 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.web;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScriptRegistryTest {
+
+    @Test
+    public void testBundledScriptsLoadedOnce() {
+        ScriptRegistry registry = new ScriptRegistry();
+        String script = registry.get("js/scroll-to.js");
+        assertTrue(script.contains("scrollTo"));
+        assertTrue(script == registry.get("js/scroll-to.js"));
+    }
+
+    @Test
+    public void testRegisterScript() {
+        ScriptRegistry registry = new ScriptRegistry();
+        assertFalse(registry.contains("custom"));
+        registry.register("custom", "return 1;");
+        assertTrue(registry.contains("custom"));
+        assertEquals("return 1;", registry.get("custom"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testBundledScriptCannotBeReplaced() {
+        new ScriptRegistry().register("js/scroll-to.js", "return 1;");
+    }
+
+    @Test(expected = UnableTakeSnapshotException.class)
+    public void testMissingScript() {
+        new ScriptRegistry().get("js/missing.js");
+    }
+
+    @Test
+    public void testHelperLibrary() {
+        ScriptRegistry registry = new ScriptRegistry();
+        String library = registry.getHelperLibrary();
+        assertTrue(library.startsWith("window.__shutterbug = {"));
+        assertTrue(library.contains("'js/scroll-to.js': function () {\n" + registry.get("js/scroll-to.js")));
+        assertTrue(library == registry.getHelperLibrary());
+        String invocation = registry.getInvocation("js/scroll-to.js");
+        assertTrue(invocation.contains("return h['js/scroll-to.js'].apply(null, arguments);"));
+
+        registry.register("it's custom", "return 1;");
+        assertFalse(library.equals(registry.getHelperLibrary()));
+        assertTrue(registry.getHelperLibrary().contains("'it\\'s custom': function () {\nreturn 1;"));
+        assertFalse(invocation.equals(registry.getInvocation("js/scroll-to.js")));
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.web;
+
+import org.junit.Test;
+import org.openqa.selenium.Point;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScrollPlanTest {
+
+    @Test
+    public void testSerpentineOrderWithExactLastTiles() {
+        ScrollPlan plan = new ScrollPlan(2500, 1800, 1000, 800, 0);
+        assertEquals(Arrays.asList(
+                new Point(0, 0), new Point(1000, 0), new Point(1500, 0),
+                new Point(1500, 800), new Point(1000, 800), new Point(0, 800),
+                new Point(0, 1000), new Point(1000, 1000), new Point(1500, 1000)), plan.getOffsets());
+    }
+
+    @Test
+    public void testOverlap() {
+        ScrollPlan plan = new ScrollPlan(1000, 2000, 1000, 800, 100);
+        assertEquals(Arrays.asList(new Point(0, 0), new Point(0, 700), new Point(0, 1200)), plan.getOffsets());
+    }
+
+    @Test
+    public void testContentWithinOneTile() {
+        assertEquals(Collections.singletonList(new Point(0, 0)), new ScrollPlan(800, 600, 1000, 800, 0).getOffsets());
+        assertEquals(Collections.singletonList(new Point(0, 0)), new ScrollPlan(1000, 800, 1000, 800, 0).getOffsets());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testEmptyTile() {
+        new ScrollPlan(1000, 800, 0, 800, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOverlapAsLargeAsTile() {
+        new ScrollPlan(1000, 2000, 1000, 800, 800);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeOverlap() {
+        new ScrollPlan(1000, 2000, 1000, 800, -1);
+    }
+
+    @Test
+    public void testScheduleWithoutGrowth() {
+        ScrollSchedule schedule = new ScrollSchedule(1000, 2000, 1000, 800, 0, 8);
+        assertEquals(Arrays.asList(new Point(0, 0), new Point(0, 800), new Point(0, 1200)), drain(schedule, 2000));
+        assertFalse(schedule.grow(1000, 2000));
+    }
+
+    @Test
+    public void testScheduleReplansWhenContentGrows() {
+        ScrollSchedule schedule = new ScrollSchedule(1000, 2000, 1000, 800, 0, 8);
+        Point first = schedule.next();
+        schedule.captured(new Rectangle(first.getX(), first.getY(), 1000, 800));
+        Point second = schedule.next();
+        schedule.captured(new Rectangle(second.getX(), second.getY(), 1000, 800));
+        assertTrue(schedule.grow(1000, 3000));
+        assertEquals(3000, schedule.getHeight());
+        // tiles within the captured area are skipped, the rest of the grown content is planned again
+        assertEquals(Arrays.asList(new Point(0, 1600), new Point(0, 2200)), drain(schedule, 3000));
+    }
+
+    @Test
+    public void testScheduleReplansAtMostMaxReplans() {
+        ScrollSchedule schedule = new ScrollSchedule(1000, 800, 1000, 800, 0, 2);
+        int height = 800;
+        int tiles = 0;
+        for (Point offset = schedule.next(); offset != null; offset = schedule.next()) {
+            schedule.captured(new Rectangle(offset.getX(), offset.getY(), 1000, 800));
+            tiles++;
+            // content keeps growing, as with infinite scrolling
+            height += 800;
+            schedule.grow(1000, height);
+        }
+        assertEquals(2400, schedule.getHeight());
+        assertEquals(3, tiles);
+    }
+
+    private static List<Point> drain(ScrollSchedule schedule, int height) {
+        List<Point> offsets = new ArrayList<>();
+        for (Point offset = schedule.next(); offset != null; offset = schedule.next()) {
+            offsets.add(offset);
+            schedule.captured(new Rectangle(offset.getX(), offset.getY(), 1000, Math.min(800, height - offset.getY())));
+        }
+        return offsets;
+    }
+
+    @Test
+    public void testOverlapFittedToSmallTiles() {
+        assertEquals(20, ScrollPlan.fitOverlap(20, 1000, 800));
+        assertEquals(9, ScrollPlan.fitOverlap(20, 1000, 10));
+        assertEquals(0, ScrollPlan.fitOverlap(20, 1, 800));
+        assertEquals(0, ScrollPlan.fitOverlap(0, 1, 1));
+        ScrollPlan plan = new ScrollPlan(30, 100, 10, 40, ScrollPlan.fitOverlap(20, 10, 40));
+        assertEquals(Arrays.asList(
+                new Point(0, 0), new Point(1, 0), new Point(2, 0)), plan.getOffsets().subList(0, 3));
+    }
+}
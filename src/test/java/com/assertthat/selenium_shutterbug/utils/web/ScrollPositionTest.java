@@ -0,0 +1,53 @@
+/*
+ *  Copyright (c) 2016, Glib Briia  <a href="mailto:glib.briia@assertthat.com">Glib Briia</a>
+ *  Distributed under the terms of the MIT License
+ */
+
+package com.assertthat.selenium_shutterbug.utils.web;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class ScrollPositionTest {
+
+    @Test
+    public void testCssPixelsKeptAtRatioOne() {
+        ScrollPosition position = ScrollPosition.of(Arrays.<Number>asList(120L, 340L, 1280L, 5000L), 1.0);
+        assertEquals(120, position.getX());
+        assertEquals(340, position.getY());
+        assertEquals(1280, position.getScrollableWidth());
+        assertEquals(5000, position.getScrollableHeight());
+    }
+
+    @Test
+    public void testScaledByDevicePixelRatio() {
+        ScrollPosition position = ScrollPosition.of(Arrays.<Number>asList(100L, 200L, 1024L, 3000L), 1.5);
+        assertEquals(150, position.getX());
+        assertEquals(300, position.getY());
+        assertEquals(1536, position.getScrollableWidth());
+        assertEquals(4500, position.getScrollableHeight());
+    }
+
+    @Test
+    public void testFractionalPixelsTruncated() {
+        // 33.5 * 1.5 = 50.25, 10.75 * 1.5 = 16.125, 0.6 * 1.5 = 0.9, 99.99 * 1.5 = 149.985
+        ScrollPosition position = ScrollPosition.of(Arrays.<Number>asList(33.5, 10.75, 0.6, 99.99), 1.5);
+        assertEquals(50, position.getX());
+        assertEquals(16, position.getY());
+        assertEquals(0, position.getScrollableWidth());
+        assertEquals(149, position.getScrollableHeight());
+    }
+
+    @Test
+    public void testScaledAfterFractionalOffsets() {
+        // scaled before truncating, 10.75 * 2 = 21.5 rather than 10 * 2 = 20
+        ScrollPosition position = ScrollPosition.of(Arrays.<Number>asList(10.75, 0.5, 640.25, 480L), 2.0);
+        assertEquals(21, position.getX());
+        assertEquals(1, position.getY());
+        assertEquals(1280, position.getScrollableWidth());
+        assertEquals(960, position.getScrollableHeight());
+    }
+}